@@ -1,15 +1,25 @@
 package au.edu.sydney.cpa.erp.auth;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 public class AuthModule {
-    public static List<AuthToken> tokens = new ArrayList<>();
+    // token -> time it was last used (System.nanoTime), so authenticate, login and logout are all O(1)
+    private static final Map<AuthToken, Long> tokens = new ConcurrentHashMap<>();
+
+    private static volatile long tokenTimeoutNanos = 0; // 0 means tokens never expire
+    private static ScheduledExecutorService sweeper;
+    private static ScheduledFuture<?> sweep;
 
     public static AuthToken login(String userName, String password) {
         if ("Terry Gilliam".equals(userName) && "hunter2".equals(password)) {
             AuthToken token = new AuthToken();
-            tokens.add(token);
+            tokens.put(token, System.nanoTime());
             return token;
         }
 
@@ -17,22 +27,71 @@ public class AuthModule {
     }
 
     public static boolean authenticate(AuthToken token) {
-        for (AuthToken iter : tokens) {
-            if (iter.equals(token)) {
-                return true;
-            }
+        if (null == token) {
+            return false;
+        }
+
+        Long lastUsed = tokens.get(token);
+        if (null == lastUsed) {
+            return false;
+        }
+
+        long now = System.nanoTime();
+        if (isExpired(lastUsed, now)) {
+            tokens.remove(token, lastUsed);
+            return false;
         }
 
-        return false;
+        if (tokenTimeoutNanos > 0) {
+            tokens.replace(token, lastUsed, now); // idle timeout, so every use keeps the session alive
+        }
+        return true;
     }
 
     public static void logout(AuthToken token) {
-        for (int i = 0; i < tokens.size(); i++) {
-            if (tokens.get(i).equals(token)) {
-                tokens.remove(i);
-                return;
-            }
+        if (null != token) {
+            tokens.remove(token);
         }
     }
 
+    /**
+     * Makes tokens expire after being idle for the given time. Expired tokens are rejected straight away and
+     * are cleared out by a background sweeper, so abandoned sessions don't pile up.
+     * @param timeout idle time after which a token expires, null or zero to never expire tokens
+     */
+    public static synchronized void setTokenTimeout(Duration timeout) {
+        if (null != sweep) {
+            sweep.cancel(false);
+            sweep = null;
+        }
+
+        if (null == timeout || timeout.isZero() || timeout.isNegative()) {
+            tokenTimeoutNanos = 0;
+            return;
+        }
+
+        tokenTimeoutNanos = timeout.toNanos();
+
+        if (null == sweeper) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "auth-token-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        long period = Math.max(1, timeout.toMillis() / 2);
+        sweep = sweeper.scheduleAtFixedRate(AuthModule::removeExpiredTokens, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private static void removeExpiredTokens() {
+        long now = System.nanoTime();
+        tokens.entrySet().removeIf(entry -> isExpired(entry.getValue(), now));
+    }
+
+    private static boolean isExpired(long lastUsed, long now) {
+        long timeout = tokenTimeoutNanos;
+        return timeout > 0 && now - lastUsed > timeout;
+    }
+
 }
@@ -19,6 +19,11 @@ public class AuthToken {
         return false;
     }
 
+    @Override
+    public int hashCode() {
+        return auth.hashCode();
+    }
+
     public UUID getAuth() {
         return auth;
     }
@@ -0,0 +1,80 @@
+package au.edu.sydney.cpa.erp.database;
+
+import au.edu.sydney.cpa.erp.ordering.Finalisable;
+import au.edu.sydney.cpa.erp.ordering.Order;
+import au.edu.sydney.cpa.erp.ordering.ScheduledOrder;
+
+import java.time.LocalDateTime;
+
+/**
+ * One row of the order summary table: just what the list screens need, without the order's reports.
+ * Rows are rebuilt by TestDatabase every time an order is saved, and dropped when it is removed.
+ */
+public class OrderSummary {
+    private final int orderID;
+    private final int clientID;
+    private final LocalDateTime date;
+    private final boolean finalised;
+    private final double totalCommission;
+    private final boolean scheduled;
+    private final double recurringCost;
+
+    public OrderSummary(int orderID, int clientID, LocalDateTime date, boolean finalised, double totalCommission,
+                        boolean scheduled, double recurringCost) {
+        this.orderID = orderID;
+        this.clientID = clientID;
+        this.date = date;
+        this.finalised = finalised;
+        this.totalCommission = totalCommission;
+        this.scheduled = scheduled;
+        this.recurringCost = recurringCost;
+    }
+
+    /**
+     *
+     * @param order order being saved
+     * @return its summary row, orders that don't say whether they are finalised are shown as not finalised
+     */
+    public static OrderSummary of(Order order) {
+        boolean scheduled = order instanceof ScheduledOrder;
+        boolean finalised = order instanceof Finalisable && ((Finalisable) order).isFinalised();
+        return new OrderSummary(order.getOrderID(), order.getClient(), order.getOrderDate(), finalised,
+                order.getTotalCommission(), scheduled, scheduled ? ((ScheduledOrder) order).getRecurringCost() : 0.0);
+    }
+
+    public int getOrderID() {
+        return orderID;
+    }
+
+    public int getClientID() {
+        return clientID;
+    }
+
+    public LocalDateTime getDate() {
+        return date;
+    }
+
+    public boolean isFinalised() {
+        return finalised;
+    }
+
+    public double getTotalCommission() {
+        return totalCommission;
+    }
+
+    /**
+     *
+     * @return true if the order repeats every quarter
+     */
+    public boolean isScheduled() {
+        return scheduled;
+    }
+
+    /**
+     *
+     * @return cost per quarter for scheduled orders, 0 for one-off orders
+     */
+    public double getRecurringCost() {
+        return recurringCost;
+    }
+}
@@ -3,21 +3,69 @@ package au.edu.sydney.cpa.erp.database;
 import au.edu.sydney.cpa.erp.auth.AuthModule;
 import au.edu.sydney.cpa.erp.auth.AuthToken;
 import au.edu.sydney.cpa.erp.ordering.Order;
+import com.google.common.util.concurrent.Striped;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.hash.TIntHashSet;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 @SuppressWarnings("Duplicates")
 public class TestDatabase {
-    private int nextOrderID = 1;
+    private static final int LOCK_STRIPES = 64;
+    // Largest batch saveOrders accepts, -Dfeaa.db.maxBatchSize=n to change it
+    private static final int MAX_BATCH_SIZE = Integer.getInteger("feaa.db.maxBatchSize", 50);
+
+    private final AtomicInteger nextOrderID = new AtomicInteger(1);
 
     private static final TestDatabase instance = new TestDatabase();
+    private static final String[] clientFields = {
+            "fName",
+            "lName",
+            "phoneNumber",
+            "emailAddress",
+            "address",
+            "suburb",
+            "state",
+            "postCode",
+            "internal accounting",
+            "businessName",
+            "pigeonCoopID"
+    };
     /*
     Note from Tim:
     This is set up to do the same things in the same amount of time as the 'real' database.
     Because it's networked and relational DB based object identity can't be assumed
      */
-    private final List<Order> orders = new ArrayList<>();
+
+    /*
+    Several FEAA sessions save at the same time, so every write to one order ID happens under that ID's stripe
+    lock: the order, its summary row and its place in the secondary indexes all change together, and two saves
+    of the same order can't interleave. Reads don't lock, they go straight to the concurrent maps.
+    The trove client index isn't thread safe, so it is only touched while holding its own monitor, and
+    only for as long as it takes to add or remove one ID.
+     */
+    private final Striped<Lock> orderLocks = Striped.lock(LOCK_STRIPES);
+    private final ConcurrentMap<Integer, Order> orders = new ConcurrentHashMap<>(); // order ID -> order
+    private final ConcurrentNavigableMap<Integer, OrderSummary> summaries = new ConcurrentSkipListMap<>(); // order ID -> summary, sorted for paging
+    // Order IDs in the order they were first saved, keyed by a save sequence number so a remove is a log n
+    // lookup instead of a search and shift of the whole list. insertionSeq finds an order's key for the remove.
+    private final ConcurrentNavigableMap<Long, Integer> insertionOrder = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<Integer, Long> insertionSeq = new ConcurrentHashMap<>();
+    private final AtomicLong nextInsertionSeq = new AtomicLong();
+    private final TIntObjectHashMap<TIntHashSet> ordersByClient = new TIntObjectHashMap<>(); // client ID -> order IDs, guarded by itself
+    private volatile long millisPerSecond = Long.getLong("feaa.db.millisPerSecond", 1000); // how long one simulated database second really takes
     private final List<Integer> clients = new ArrayList<>();
 
     private TestDatabase(){
@@ -36,17 +84,84 @@ public class TestDatabase {
             throw new SecurityException("Invalid authorisation");
         }
 
-        for (Order iter : orders) {
-            if (iter.getOrderID() == order.getOrderID()) {
-                orders.remove(iter);
-                break;
+        simulateSlowDatabase(10, "Saving order");
+
+        Order saved = order.copy();
+        OrderSummary summary = OrderSummary.of(order);
+        int id = saved.getOrderID();
+
+        Lock lock = orderLocks.get(id);
+        lock.lock();
+        try {
+            store(saved, summary);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Saves several orders in one round trip, so the batch pays the 10 second save once instead of once per order.
+     * The batch is applied all at once, nobody sees part of it.
+     * @param orders at most getMaxBatchSize() orders, if an order appears more than once the last copy wins
+     */
+    public void saveOrders(AuthToken token, Collection<Order> orders) {
+        if (!AuthModule.authenticate(token)) {
+            throw new SecurityException("Invalid authorisation");
+        }
+        if (orders.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Batch of " + orders.size() + " orders is over the limit of " + MAX_BATCH_SIZE);
+        }
+        if (orders.isEmpty()) {
+            return;
+        }
+
+        simulateSlowDatabase(10, "Saving " + orders.size() + " orders");
+
+        Map<Integer, Order> saved = new LinkedHashMap<>();
+        Map<Integer, OrderSummary> rows = new LinkedHashMap<>();
+        for (Order order : orders) {
+            saved.put(order.getOrderID(), order.copy());
+            rows.put(order.getOrderID(), OrderSummary.of(order));
+        }
+
+        // bulkGet hands the stripes back in a fixed order, so two batches can't deadlock on each other
+        Iterable<Lock> locks = orderLocks.bulkGet(saved.keySet());
+        for (Lock lock : locks) {
+            lock.lock();
+        }
+        try {
+            for (Map.Entry<Integer, Order> entry : saved.entrySet()) {
+                store(entry.getValue(), rows.get(entry.getKey()));
+            }
+        } finally {
+            for (Lock lock : locks) {
+                lock.unlock();
             }
         }
+    }
 
+    /**
+     *
+     * @return the most orders saveOrders accepts in one call
+     */
+    public int getMaxBatchSize() {
+        return MAX_BATCH_SIZE;
+    }
 
-        simulateSlowDatabase(10, "Saving order");
+    // caller holds the order's stripe lock
+    private void store(Order saved, OrderSummary summary) {
+        int id = saved.getOrderID();
+        Order previous = orders.put(id, saved);
 
-        orders.add(order.copy());
+        if (null == previous) {
+            long seq = nextInsertionSeq.getAndIncrement();
+            insertionSeq.put(id, seq);
+            insertionOrder.put(seq, id);
+        } else {
+            unindexClient(previous);
+        }
+        indexClient(saved);
+        summaries.put(id, summary);
     }
 
     public List<Integer> getClientIDs(AuthToken token) {
@@ -66,6 +181,52 @@ public class TestDatabase {
 
         simulateSlowDatabase(1, "Getting client field");
 
+        return readClientField(id, fieldName);
+    }
+
+    /**
+     * Loads every field of one client in a single round trip.
+     * @return field name to value, or null if there is no such client
+     */
+    public Map<String, String> getClientProfile(AuthToken token, int id) {
+        if (!AuthModule.authenticate(token)) {
+            throw new SecurityException("Invalid authorisation");
+        }
+
+        simulateSlowDatabase(1, "Getting client profile");
+
+        return clients.contains(id) ? readClientProfile(id) : null;
+    }
+
+    /**
+     * Loads every field of several clients in a single round trip. Unknown client ids are left out.
+     * @return client id to (field name to value), in the order the ids were asked for
+     */
+    public Map<Integer, Map<String, String>> getClientProfiles(AuthToken token, Collection<Integer> ids) {
+        if (!AuthModule.authenticate(token)) {
+            throw new SecurityException("Invalid authorisation");
+        }
+
+        simulateSlowDatabase(1, "Getting client profiles");
+
+        Map<Integer, Map<String, String>> result = new LinkedHashMap<>();
+        for (Integer id : ids) {
+            if (clients.contains(id)) {
+                result.put(id, readClientProfile(id));
+            }
+        }
+        return result;
+    }
+
+    private Map<String, String> readClientProfile(int id) {
+        Map<String, String> profile = new LinkedHashMap<>();
+        for (String fieldName : clientFields) {
+            profile.put(fieldName, readClientField(id, fieldName));
+        }
+        return profile;
+    }
+
+    private String readClientField(int id, String fieldName) {
         switch (fieldName) {
             case "fName":
                 switch (id) {
@@ -201,45 +362,188 @@ public class TestDatabase {
             throw new SecurityException("Invalid authorisation");
         }
 
-        for (Order iter : orders) {
-            if (iter.getOrderID() == id) {
-                return iter.copy();
+        Order order = orders.get(id);
+        return null == order ? null : order.copy();
+    }
+
+    public boolean removeOrder(AuthToken token, int id) {
+        if (!AuthModule.authenticate(token)) {
+            throw new SecurityException("Invalid authorisation");
+        }
+
+        Lock lock = orderLocks.get(id);
+        lock.lock();
+        try {
+            Order removed = orders.remove(id);
+
+            if (null == removed) {
+                return false;
             }
+
+            Long seq = insertionSeq.remove(id);
+            if (null != seq) {
+                insertionOrder.remove(seq);
+            }
+            unindexClient(removed);
+            summaries.remove(id);
+            return true;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        return null;
+    public List<Order> getOrders(AuthToken token) {
+        if (!AuthModule.authenticate(token)) {
+            throw new SecurityException("Invalid authorisation");
+        }
+
+        List<Order> result = new ArrayList<>(orders.size());
+        for (Integer id : insertionOrder.values()) {
+            Order order = orders.get(id);
+            if (null != order) { // removed since the ids were taken
+                result.add(order.copy());
+            }
+        }
+        return result;
     }
 
-    public boolean removeOrder(AuthToken token, int id) {
+    /**
+     * Keyset paged version of getOrders. Only the orders on the requested page are copied, so listing a large
+     * order book a page at a time never holds more than limit copies at once.
+     * @param afterID only orders with a greater ID are returned, pass -1 (or anything lower than every ID) to start
+     * @param limit maximum number of orders to return, 0 or more
+     * @return up to limit copied orders in order ID order, an empty list once there are no more
+     * @throws IllegalArgumentException if limit is negative
+     */
+    public List<Order> getOrders(AuthToken token, int afterID, int limit) {
         if (!AuthModule.authenticate(token)) {
             throw new SecurityException("Invalid authorisation");
         }
+        checkLimit(limit);
 
-        for (Order iter : orders) {
-            if (iter.getOrderID() == id) {
-                orders.remove(iter);
-                return true;
+        List<Order> result = new ArrayList<>(Math.min(limit, orders.size()));
+        // the summary table is already sorted by ID, so it doubles as the index to page over
+        for (Integer id : summaries.tailMap(afterID, false).keySet()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            Order order = orders.get(id);
+            if (null != order) { // removed since the page was started
+                result.add(order.copy());
             }
         }
+        return result;
+    }
 
-        return false;
+    /**
+     * Pages through the order summary table in order ID order, without touching the orders themselves.
+     * @param afterID only orders with a greater ID are returned, pass -1 (or anything lower than every ID) to start
+     * @param limit maximum number of rows to return, 0 or more
+     * @return up to limit summaries, an empty list once there are no more
+     * @throws IllegalArgumentException if limit is negative
+     */
+    public List<OrderSummary> getOrderSummaries(AuthToken token, int afterID, int limit) {
+        if (!AuthModule.authenticate(token)) {
+            throw new SecurityException("Invalid authorisation");
+        }
+        checkLimit(limit);
 
+        List<OrderSummary> result = new ArrayList<>(Math.min(limit, summaries.size()));
+        for (OrderSummary summary : summaries.tailMap(afterID, false).values()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.add(summary);
+        }
+        return result;
     }
 
-    public List<Order> getOrders(AuthToken token) {
+    private static void checkLimit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Page limit can't be negative: " + limit);
+        }
+    }
+
+    public List<Order> getOrdersForClient(AuthToken token, int clientID) {
         if (!AuthModule.authenticate(token)) {
             throw new SecurityException("Invalid authorisation");
         }
 
-        List<Order> result = new ArrayList<>();
-        for (Order order : orders) {
-            result.add(order.copy());
+        int[] sortedIDs;
+        synchronized (ordersByClient) {
+            TIntHashSet ids = ordersByClient.get(clientID);
+            if (null == ids) {
+                return new ArrayList<>();
+            }
+            sortedIDs = ids.toArray();
+        }
+        Arrays.sort(sortedIDs);
+
+        List<Order> result = new ArrayList<>(sortedIDs.length);
+        for (int id : sortedIDs) {
+            Order order = orders.get(id);
+            if (null != order) { // removed since the ids were taken
+                result.add(order.copy());
+            }
         }
         return result;
     }
 
     public int getNextOrderID() {
-        return nextOrderID++;
+        return nextOrderID.getAndIncrement();
+    }
+
+    /**
+     * Reserves a whole block of order IDs in one call, so a session can hand them out without coming back here
+     * for each order. The IDs come from the same sequence as getNextOrderID, so nobody else is ever given one.
+     * @param count number of IDs to reserve
+     * @return the first ID of the block, the block runs from it to first + count - 1
+     */
+    public int reserveOrderIDs(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Must reserve at least one order ID");
+        }
+        return nextOrderID.getAndAdd(count);
+    }
+
+    /**
+     * Moves the order ID sequence forward so it never hands out an ID below the given one, e.g. because orders
+     * with those IDs are being brought back from somewhere else. Never moves it backwards.
+     * @param nextID lowest ID that may still be handed out
+     */
+    public void advanceOrderIDs(int nextID) {
+        nextOrderID.accumulateAndGet(nextID, Math::max);
+    }
+
+    /**
+     * Lets tests run the database without the real delays, 0 skips the waiting completely
+     * @param millis how long one simulated second should take
+     */
+    void setMillisPerSecond(long millis) {
+        this.millisPerSecond = millis;
+    }
+
+    private void indexClient(Order order) {
+        synchronized (ordersByClient) {
+            TIntHashSet ids = ordersByClient.get(order.getClient());
+            if (null == ids) {
+                ids = new TIntHashSet();
+                ordersByClient.put(order.getClient(), ids);
+            }
+            ids.add(order.getOrderID());
+        }
+    }
+
+    private void unindexClient(Order order) {
+        synchronized (ordersByClient) {
+            TIntHashSet ids = ordersByClient.get(order.getClient());
+            if (null != ids) {
+                ids.remove(order.getOrderID());
+                if (ids.isEmpty()) {
+                    ordersByClient.remove(order.getClient());
+                }
+            }
+        }
     }
 
     private void simulateSlowDatabase(int seconds, String message) {
@@ -250,11 +554,16 @@ public class TestDatabase {
         help us out in the FEAA code?
          */
 
+        long millis = millisPerSecond;
+        if (millis <= 0) {
+            return;
+        }
+
         try {
             System.out.print(message);
             for (int i = 0; i < seconds; i++) {
                 System.out.print(".");
-                Thread.sleep(1000);
+                Thread.sleep(millis);
             }
             System.out.print("done!\n");
         } catch (InterruptedException ignored) {}
@@ -0,0 +1,230 @@
+package au.edu.sydney.cpa.erp.feaa;
+
+import au.edu.sydney.cpa.erp.database.OrderSummary;
+import au.edu.sydney.cpa.erp.ordering.Client;
+import au.edu.sydney.cpa.erp.ordering.Report;
+import com.google.common.util.concurrent.Striped;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+/**
+ * Non blocking front end to an FEAAFacade.
+ *
+ * Every call runs on a background executor and hands back a CompletableFuture straight away, so the front end
+ * can fire off independent database work (e.g. validating the client and loading the reports) at the same time
+ * and keep taking input while it happens. Failures, including the SecurityException for a missing login,
+ * complete the future exceptionally instead of being thrown.
+ *
+ * Calls for the same order are applied one at a time in the order they started running. Chain them (see
+ * createOrderWithLines) if they have to happen in a particular order. Calls for different orders run in parallel.
+ *
+ * The default executor follows ExecutionMode, in PLATFORM mode its pool size can be set with -Dfeaa.async.threads=n.
+ */
+public class AsyncFEAAFacade {
+
+    private static final int DEFAULT_THREADS = Integer.getInteger("feaa.async.threads", 8);
+    private static final int ORDER_LOCK_STRIPES = 64;
+
+    private final FEAAFacade facade;
+    private final Executor executor;
+    private final ExecutorService ownedPool; // null if the executor belongs to the caller
+    private final Striped<Lock> orderLocks = Striped.lock(ORDER_LOCK_STRIPES);
+
+    public AsyncFEAAFacade() {
+        this(new FEAAFacade());
+    }
+
+    /**
+     * Runs the calls on an executor for the configured ExecutionMode, shut down by shutdown()
+     * @param facade facade the calls are made on
+     */
+    public AsyncFEAAFacade(FEAAFacade facade) {
+        this(facade, ExecutionMode.current());
+    }
+
+    /**
+     * Runs the calls on an executor for the given mode, shut down by shutdown()
+     * @param facade facade the calls are made on
+     * @param mode PLATFORM for a pool of DEFAULT_THREADS threads, VIRTUAL for a virtual thread per call
+     */
+    public AsyncFEAAFacade(FEAAFacade facade, ExecutionMode mode) {
+        this(facade, mode.newExecutor("feaa-async", DEFAULT_THREADS), true);
+    }
+
+    /**
+     * Runs the calls on the given executor instead. The caller still owns it and is responsible for shutting it down.
+     * @param facade facade the calls are made on
+     * @param executor executor the calls are run on
+     */
+    public AsyncFEAAFacade(FEAAFacade facade, Executor executor) {
+        this(facade, executor, false);
+    }
+
+    private AsyncFEAAFacade(FEAAFacade facade, Executor executor, boolean owned) {
+        if (null == facade || null == executor) {
+            throw new IllegalArgumentException("Facade and executor are required");
+        }
+        this.facade = facade;
+        this.executor = executor;
+        this.ownedPool = owned ? (ExecutorService) executor : null;
+    }
+
+    /**
+     *
+     * @return the facade the calls are made on, for anything that has to block anyway
+     */
+    public FEAAFacade getFacade() {
+        return facade;
+    }
+
+    public CompletableFuture<Boolean> login(String userName, String password) {
+        return run(() -> facade.login(userName, password));
+    }
+
+    /**
+     * Waits for the last orders to be saved and then logs out, see FEAAFacade.logout
+     * @return completes once the user has been logged out
+     */
+    public CompletableFuture<Void> logout() {
+        return CompletableFuture.runAsync(facade::logout, executor);
+    }
+
+    public CompletableFuture<List<Integer>> getAllOrders() {
+        return run(facade::getAllOrders);
+    }
+
+    public CompletableFuture<List<OrderSummary>> getOrderSummaries(int afterOrderID, int limit) {
+        return run(() -> facade.getOrderSummaries(afterOrderID, limit));
+    }
+
+    /**
+     * See FEAAFacade.createOrder
+     * @return the ID of the created order, null if the order type is unknown
+     */
+    public CompletableFuture<Integer> createOrder(int clientID, LocalDateTime date, boolean isCritical, boolean isScheduled, int orderType, int criticalLoadingRaw, int maxCountedEmployees, int numQuarters) {
+        return run(() -> facade.createOrder(clientID, date, isCritical, isScheduled, orderType, criticalLoadingRaw, maxCountedEmployees, numQuarters));
+    }
+
+    public CompletableFuture<List<Integer>> getAllClientIDs() {
+        return run(facade::getAllClientIDs);
+    }
+
+    public CompletableFuture<Client> getClient(int id) {
+        return run(() -> facade.getClient(id));
+    }
+
+    public CompletableFuture<Map<Integer, Client>> getClients(List<Integer> ids) {
+        return run(() -> facade.getClients(ids));
+    }
+
+    public CompletableFuture<Boolean> removeOrder(int id) {
+        return runForOrder(id, () -> facade.removeOrder(id));
+    }
+
+    public CompletableFuture<List<Report>> getAllReports() {
+        return run(facade::getAllReports);
+    }
+
+    public CompletableFuture<Boolean> finaliseOrder(int orderID, List<String> contactPriority) {
+        return runForOrder(orderID, () -> facade.finaliseOrder(orderID, contactPriority));
+    }
+
+    public CompletableFuture<Double> getOrderTotalCommission(int orderID) {
+        return runForOrder(orderID, () -> facade.getOrderTotalCommission(orderID));
+    }
+
+    public CompletableFuture<Void> orderLineSet(int orderID, Report report, int numEmployees) {
+        return runForOrder(orderID, () -> {
+            facade.orderLineSet(orderID, report, numEmployees);
+            return null;
+        });
+    }
+
+    public CompletableFuture<String> getOrderLongDesc(int orderID) {
+        return runForOrder(orderID, () -> facade.getOrderLongDesc(orderID));
+    }
+
+    public CompletableFuture<String> getOrderShortDesc(int orderID) {
+        return runForOrder(orderID, () -> facade.getOrderShortDesc(orderID));
+    }
+
+    public CompletableFuture<List<String>> getKnownContactMethods() {
+        return run(facade::getKnownContactMethods);
+    }
+
+    /**
+     * Creates an order and then sets each of its lines, as one pipeline. Nothing waits on the caller's thread.
+     * @param lines report to number of employees, set in iteration order
+     * @return the ID of the created order, null if the order type is unknown
+     */
+    public CompletableFuture<Integer> createOrderWithLines(int clientID, LocalDateTime date, boolean isCritical, boolean isScheduled, int orderType, int criticalLoadingRaw, int maxCountedEmployees, int numQuarters,
+                                                           Map<Report, Integer> lines) {
+        Map<Report, Integer> linesCopy = new LinkedHashMap<>(lines); // the caller may keep editing theirs
+        return createOrder(clientID, date, isCritical, isScheduled, orderType, criticalLoadingRaw, maxCountedEmployees, numQuarters)
+                .thenCompose(id -> null == id ? CompletableFuture.completedFuture(null) : setLines(id, linesCopy));
+    }
+
+    /**
+     * Creates an order, sets each of its lines and then finalises it and sends the invoice, as one pipeline.
+     * @param lines report to number of employees, set in iteration order
+     * @param contactPriority see FEAAFacade.finaliseOrder
+     * @return the ID of the order, null if the order type is unknown. Completes exceptionally if the invoice
+     * could not be sent, the order is finalised and saved either way.
+     */
+    public CompletableFuture<Integer> createAndFinaliseOrder(int clientID, LocalDateTime date, boolean isCritical, boolean isScheduled, int orderType, int criticalLoadingRaw, int maxCountedEmployees, int numQuarters,
+                                                             Map<Report, Integer> lines, List<String> contactPriority) {
+        return createOrderWithLines(clientID, date, isCritical, isScheduled, orderType, criticalLoadingRaw, maxCountedEmployees, numQuarters, lines)
+                .thenCompose(id -> {
+                    if (null == id) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return finaliseOrder(id, contactPriority).thenApply(sent -> {
+                        if (!sent) {
+                            throw new IllegalStateException("Order " + id + " was finalised but its invoice could not be sent");
+                        }
+                        return id;
+                    });
+                });
+    }
+
+    /**
+     * Shuts down the default pool, if this facade made it. Calls already started still finish.
+     */
+    public void shutdown() {
+        if (null != ownedPool) {
+            ownedPool.shutdown();
+        }
+    }
+
+    // The lines all touch one order, so they go in a single task rather than queueing up for its lock one by one
+    private CompletableFuture<Integer> setLines(int orderID, Map<Report, Integer> lines) {
+        return runForOrder(orderID, () -> {
+            lines.forEach((report, numEmployees) -> facade.orderLineSet(orderID, report, numEmployees));
+            return orderID;
+        });
+    }
+
+    private <T> CompletableFuture<T> run(Supplier<T> call) {
+        return CompletableFuture.supplyAsync(call, executor);
+    }
+
+    private <T> CompletableFuture<T> runForOrder(int orderID, Supplier<T> call) {
+        return run(() -> {
+            Lock lock = orderLocks.get(orderID);
+            lock.lock();
+            try {
+                return call.get();
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+}
@@ -4,6 +4,9 @@ import au.edu.sydney.cpa.erp.auth.AuthToken;
 import au.edu.sydney.cpa.erp.contact.CarrierPigeon;
 import au.edu.sydney.cpa.erp.ordering.Client;
 
+import java.util.Arrays;
+import java.util.List;
+
 public class CarrierSend implements  Chainable {
 
     Chainable next;
@@ -57,4 +60,13 @@ public class CarrierSend implements  Chainable {
         this.next = chain;
 
     }
+
+    /**
+     *
+     * @return the client fields canSend reads, so they can be fetched before the chain runs
+     */
+    @Override
+    public List<String> getRequiredFields() {
+        return Arrays.asList("pigeonCoopID", "emailAddress", "fName", "lName");
+    }
 }
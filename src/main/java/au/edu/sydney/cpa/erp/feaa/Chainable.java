@@ -3,8 +3,16 @@ package au.edu.sydney.cpa.erp.feaa;
 import au.edu.sydney.cpa.erp.auth.AuthToken;
 import au.edu.sydney.cpa.erp.ordering.Client;
 
+import java.util.List;
+
 public interface Chainable {
      boolean  canSend(Client client, AuthToken token,String data);
      void  setNextChain(Chainable chain);
      String getTag();
+
+     /**
+      *
+      * @return database names of every client field canSend may read, see ContactHandler
+      */
+     List<String> getRequiredFields();
 }
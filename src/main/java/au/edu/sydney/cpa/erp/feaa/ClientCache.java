@@ -0,0 +1,110 @@
+package au.edu.sydney.cpa.erp.feaa;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide cache of client profiles, keyed by client ID.
+ *
+ * Every FEAAFacade shares the same instance, so a field loaded by one visit (or one session) is reused by the
+ * next one instead of paying the 1 second per field again. Profiles hold no AuthToken, each ClientImpl built on
+ * top of a profile still uses its own session's token for any field that is not cached yet.
+ *
+ * Entries are dropped once the cache is full or once they get too old, and can be invalidated explicitly when a
+ * client is known to have changed.
+ */
+public class ClientCache {
+
+    private static final ClientCache instance = new ClientCache(1000, 10, TimeUnit.MINUTES);
+
+    private final Cache<Integer, ClientProfile> profiles;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     *
+     * @param maxClients maximum number of client profiles kept at once
+     * @param timeToLive how long a profile is kept after it was first loaded
+     * @param unit unit of timeToLive
+     */
+    public ClientCache(long maxClients, long timeToLive, TimeUnit unit) {
+        profiles = CacheBuilder.newBuilder()
+                .maximumSize(maxClients)
+                .expireAfterWrite(timeToLive, unit)
+                .<Integer, ClientProfile>removalListener(notification -> {
+                    if (notification.wasEvicted()) {
+                        evictions.incrementAndGet();
+                    }
+                })
+                .build();
+    }
+
+    public static ClientCache getInstance() {
+        return instance;
+    }
+
+    /**
+     *
+     * @param id Client ID
+     * @return the shared profile of that client, an empty one is created if it is not cached yet
+     */
+    public ClientProfile getProfile(int id) {
+        try {
+            return profiles.get(id, () -> new ClientProfile(this));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause()); // can't happen, creating a profile never throws
+        }
+    }
+
+    /**
+     * Forgets everything known about one client.
+     * @param id Client ID
+     */
+    public void invalidate(int id) {
+        profiles.invalidate(id);
+    }
+
+    /**
+     * Forgets everything known about every client.
+     */
+    public void invalidateAll() {
+        profiles.invalidateAll();
+    }
+
+    /**
+     *
+     * @return number of field reads answered from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     *
+     * @return number of field reads that had to go to the database
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     *
+     * @return number of profiles dropped because the cache was full or they expired
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    void recordLookup(boolean hit) {
+        if (hit) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+    }
+}
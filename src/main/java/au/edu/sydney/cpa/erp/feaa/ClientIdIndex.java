@@ -0,0 +1,108 @@
+package au.edu.sydney.cpa.erp.feaa;
+
+import au.edu.sydney.cpa.erp.auth.AuthToken;
+import au.edu.sydney.cpa.erp.database.TestDatabase;
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Membership index of the valid client IDs, so createOrder can check a client without the 2 second
+ * getClientIDs round trip and a linear search of the list it returns.
+ *
+ * The IDs are kept in a primitive int set and reloaded from the database when they are older than the refresh
+ * interval. The reload happens on the next lookup rather than on a timer, so an idle session never talks to the
+ * database. An ID that isn't in the set also forces a reload, at most once per MISS_RELOAD_MILLIS, in case the
+ * client was added since the last load.
+ *
+ * Each facade has its own index, since the client list is read with that facade's token. Lookups hold a
+ * ReentrantLock across the reload, so a virtual thread waiting for it parks instead of pinning its carrier.
+ * The refresh interval can be set with -Dfeaa.clients.refreshMillis=n, 0 reloads on every lookup.
+ */
+public class ClientIdIndex {
+    private static final long REFRESH_MILLIS = Long.getLong("feaa.clients.refreshMillis", 60_000);
+    private static final long MISS_RELOAD_MILLIS = 5_000;
+
+    private final long refreshNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private TIntHashSet ids; // null until loaded or after invalidate(), guarded by lock
+    private long loadedAt; // System.nanoTime of the last load, guarded by lock
+
+    public ClientIdIndex() {
+        this(REFRESH_MILLIS);
+    }
+
+    /**
+     *
+     * @param refreshMillis how long a loaded set of IDs is trusted for
+     */
+    public ClientIdIndex(long refreshMillis) {
+        if (refreshMillis < 0) {
+            throw new IllegalArgumentException("Refresh interval can't be negative");
+        }
+        this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMillis);
+    }
+
+    /**
+     * Checks a client ID, loading the IDs from the database first if they are missing or out of date
+     * @param token Authorization Token used if the IDs have to be loaded
+     * @param clientID client to check
+     * @return true if the client exists
+     */
+    public boolean contains(AuthToken token, int clientID) {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (null == ids || now - loadedAt >= refreshNanos) {
+                load(TestDatabase.getInstance().getClientIDs(token), now);
+            } else if (!ids.contains(clientID) && now - loadedAt >= TimeUnit.MILLISECONDS.toNanos(MISS_RELOAD_MILLIS)) {
+                load(TestDatabase.getInstance().getClientIDs(token), now);
+            }
+            return ids.contains(clientID);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the IDs with a list just read from the database, so anyone who already paid for the round trip
+     * keeps the index fresh for free
+     * @param clientIDs every client ID
+     */
+    public void refresh(List<Integer> clientIDs) {
+        lock.lock();
+        try {
+            load(clientIDs, System.nanoTime());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the IDs, the next lookup loads them again. Call when clients are added or removed, or the token changes.
+     */
+    public void invalidate() {
+        lock.lock();
+        try {
+            ids = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // caller holds lock
+    private void load(List<Integer> clientIDs, long now) {
+        TIntHashSet loaded = new TIntHashSet(null == clientIDs ? 0 : clientIDs.size());
+        if (null != clientIDs) {
+            for (Integer id : clientIDs) {
+                if (null != id) {
+                    loaded.add(id);
+                }
+            }
+        }
+        ids = loaded;
+        loadedAt = now;
+    }
+}
@@ -4,6 +4,18 @@ import au.edu.sydney.cpa.erp.auth.AuthToken;
 import au.edu.sydney.cpa.erp.database.TestDatabase;
 import au.edu.sydney.cpa.erp.ordering.Client;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
 /**
  *
  * Dot point Targeted:
@@ -20,6 +32,14 @@ import au.edu.sydney.cpa.erp.ordering.Client;
  *
  * Consequences: Lag has been eliminated.
  *
+ * Clients are built with a static factory named after how they load: lazy (one field per round trip), profile
+ * (the first getter loads every field in one round trip, much cheaper once more than one field is needed),
+ * fromProfile (already loaded) or forSending (lazy, trusting the shared record of missing fields).
+ *
+ * Fields that are known to be needed soon can be fetched all at once in parallel with prefetch, see ContactHandler.
+ * A field the client doesn't have is only asked for once per client object, and not at all by a client built to
+ * trust the shared profile's record of missing fields.
+ *
  */
 public class ClientImpl implements Client {
 
@@ -36,6 +56,13 @@ public class ClientImpl implements Client {
     private String businessName;
     private String pigeonCoopID;
     private AuthToken authToken;
+    private final boolean profileMode;
+    private final ClientProfile shared;
+    private Map<String, String> profile;
+    private boolean profileLoaded = false;
+    private final boolean trustAbsent; // true to believe the shared profile when it says a field is missing
+    private final Set<String> absent = ConcurrentHashMap.newKeySet(); // fields this client was found not to have
+    private final Set<String> prefetched = ConcurrentHashMap.newKeySet(); // fetched by prefetch, not read by a getter yet
 
     /**
      *
@@ -44,8 +71,67 @@ public class ClientImpl implements Client {
      */
     public ClientImpl(AuthToken token, int id) {
 
+        this(token, id, false, new ClientProfile(), false);
+    }
+
+    private ClientImpl(AuthToken token, int id, boolean profileMode, ClientProfile shared, boolean trustAbsent) {
+
         this.id = id;
         this.authToken = token;
+        this.profileMode = profileMode;
+        this.shared = shared;
+        this.trustAbsent = trustAbsent;
+    }
+
+    /**
+     * Loads each field on its own the first time it is read. A field the shared profile has no value for is
+     * asked for again, in case it has been filled in since.
+     * @param token Authorization Token
+     * @param id Client ID
+     * @param shared profile to read known fields from and to store newly loaded fields in, see ClientCache
+     * @return the client
+     */
+    public static ClientImpl lazy(AuthToken token, int id, ClientProfile shared) {
+        return new ClientImpl(token, id, false, shared, false);
+    }
+
+    /**
+     * Like lazy, but takes the shared profile's word that a field is missing instead of asking again. Meant for
+     * sending an invoice, where the contact chain asks for fields most clients don't have.
+     * @param token Authorization Token
+     * @param id Client ID
+     * @param shared profile to read known fields from and to store newly loaded fields in, see ClientCache
+     * @return the client
+     */
+    public static ClientImpl forSending(AuthToken token, int id, ClientProfile shared) {
+        return new ClientImpl(token, id, false, shared, true);
+    }
+
+    /**
+     * Loads every field in one round trip the first time any field is needed.
+     * @param token Authorization Token
+     * @param id Client ID
+     * @param shared profile to read known fields from and to store newly loaded fields in, see ClientCache
+     * @return the client
+     */
+    public static ClientImpl profile(AuthToken token, int id, ClientProfile shared) {
+        return new ClientImpl(token, id, true, shared, false);
+    }
+
+    /**
+     * Builds a client from a profile that has already been loaded, so no further round trips are made.
+     * @param token Authorization Token
+     * @param id Client ID
+     * @param profile field name to value, as returned by TestDatabase.getClientProfiles
+     * @param shared profile the loaded fields are also stored in, see ClientCache
+     * @return the client
+     */
+    public static ClientImpl fromProfile(AuthToken token, int id, Map<String, String> profile, ClientProfile shared) {
+        ClientImpl client = profile(token, id, shared);
+        client.profile = profile;
+        client.profileLoaded = true;
+        shared.putAll(profile);
+        return client;
     }
 
     /**
@@ -67,7 +153,7 @@ public class ClientImpl implements Client {
     public String getFName() {
         if(fName == null)
         {
-            fName =  TestDatabase.getInstance().getClientField(authToken, id, "fName");
+            fName =  fetch("fName");
         }
         return fName;
     }
@@ -82,7 +168,7 @@ public class ClientImpl implements Client {
     public String getLName() {
         if(lName == null)
         {
-            lName =  TestDatabase.getInstance().getClientField(authToken, id, "lName");
+            lName =  fetch("lName");
         }
         return lName;
     }
@@ -98,7 +184,7 @@ public class ClientImpl implements Client {
     public String getPhoneNumber() {
         if(phoneNumber == null)
         {
-            phoneNumber =  TestDatabase.getInstance().getClientField(authToken, id, "phoneNumber");
+            phoneNumber =  fetch("phoneNumber");
         }
         return phoneNumber;
     }
@@ -114,7 +200,7 @@ public class ClientImpl implements Client {
     public String getEmailAddress() {
         if(emailAddress == null)
         {
-            emailAddress =  TestDatabase.getInstance().getClientField(authToken, id, "emailAddress");
+            emailAddress =  fetch("emailAddress");
         }
         return emailAddress;
     }
@@ -129,7 +215,7 @@ public class ClientImpl implements Client {
     public String getAddress() {
         if(address == null)
         {
-            address =  TestDatabase.getInstance().getClientField(authToken, id, "address");
+            address =  fetch("address");
         }
         return address;
     }
@@ -145,7 +231,7 @@ public class ClientImpl implements Client {
     public String getSuburb() {
         if(suburb == null)
         {
-            suburb =  TestDatabase.getInstance().getClientField(authToken, id, "suburb");
+            suburb =  fetch("suburb");
         }
         return suburb;
     }
@@ -161,7 +247,7 @@ public class ClientImpl implements Client {
     public String getState() {
         if(state == null)
         {
-            state =  TestDatabase.getInstance().getClientField(authToken, id, "state");
+            state =  fetch("state");
         }
         return state;
     }
@@ -177,7 +263,7 @@ public class ClientImpl implements Client {
     public String getPostCode() {
         if(postCode == null)
         {
-            postCode =  TestDatabase.getInstance().getClientField(authToken, id, "postCode");
+            postCode =  fetch("postCode");
         }
         return postCode;
     }
@@ -193,7 +279,7 @@ public class ClientImpl implements Client {
     public String getInternalAccounting() {
         if(internalAccounting == null)
         {
-            internalAccounting =  TestDatabase.getInstance().getClientField(authToken, id, "internal accounting");
+            internalAccounting =  fetch("internal accounting");
         }
         return internalAccounting;
     }
@@ -209,7 +295,7 @@ public class ClientImpl implements Client {
     public String getBusinessName() {
         if(businessName == null)
         {
-            businessName =  TestDatabase.getInstance().getClientField(authToken, id, "businessName");
+            businessName =  fetch("businessName");
         }
         return businessName;
     }
@@ -225,9 +311,87 @@ public class ClientImpl implements Client {
     public String getPigeonCoopID() {
         if(pigeonCoopID == null)
         {
-            pigeonCoopID =  TestDatabase.getInstance().getClientField(authToken, id, "pigeonCoopID");
+            pigeonCoopID =  fetch("pigeonCoopID");
         }
         return pigeonCoopID;
     }
-}
 
+    /**
+     * Fetches every given field that isn't known yet at the same time, one round trip each, and waits for them.
+     * Fields the client turns out not to have are remembered too, so the getters don't ask for them again.
+     * Profile mode clients load everything in one round trip on first use anyway, so nothing is done for them.
+     * @param fieldNames database names of the fields about to be read
+     * @param executor executor the round trips are run on, if it turns them down the getters fetch as usual
+     */
+    public void prefetch(Collection<String> fieldNames, Executor executor) {
+        if (profileMode) {
+            return;
+        }
+
+        List<CompletableFuture<Void>> fetches = new ArrayList<>();
+        for (String fieldName : new LinkedHashSet<>(fieldNames)) {
+            if (null != shared.get(fieldName) || isKnownAbsent(fieldName)) {
+                continue;
+            }
+
+            try {
+                fetches.add(CompletableFuture.runAsync(() -> {
+                    String value = TestDatabase.getInstance().getClientField(authToken, id, fieldName);
+                    shared.put(fieldName, value);
+                    if (null == value) {
+                        absent.add(fieldName);
+                    }
+                    prefetched.add(fieldName); // the getter counts this round trip as its miss
+                }, executor));
+            } catch (RejectedExecutionException e) {
+                break; // e.g. the session logged out and shut its pool, the rest are fetched by their getters
+            }
+        }
+
+        try {
+            CompletableFuture.allOf(fetches.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException ignored) {
+            // Whatever didn't arrive is fetched by its getter as usual, which reports the error to the caller
+        }
+    }
+
+    /**
+     * Fetches a single field from the shared profile if it is known there, otherwise from the database
+     * either on its own or as part of the whole profile depending on the mode.
+     * @param fieldName database name of the field
+     * @return the field value, null if the client does not have one
+     */
+    private String fetch(String fieldName) {
+        String known = shared.get(fieldName);
+        if (known != null || isKnownAbsent(fieldName)) {
+            shared.recordLookup(!prefetched.remove(fieldName));
+            return known;
+        }
+        shared.recordLookup(false);
+
+        if (!profileMode) {
+            String value = TestDatabase.getInstance().getClientField(authToken, id, fieldName);
+            shared.put(fieldName, value);
+            if (null == value) {
+                absent.add(fieldName);
+            }
+            return value;
+        }
+
+        if (!profileLoaded) {
+            profile = TestDatabase.getInstance().getClientProfile(authToken, id);
+            profileLoaded = true;
+            shared.putAll(profile);
+        }
+        return null == profile ? null : profile.get(fieldName);
+    }
+
+    /**
+     *
+     * @param fieldName database name of the field
+     * @return true if this client already found the field missing, or the shared profile did and we trust it
+     */
+    private boolean isKnownAbsent(String fieldName) {
+        return absent.contains(fieldName) || (trustAbsent && shared.isAbsent(fieldName));
+    }
+}
@@ -0,0 +1,97 @@
+package au.edu.sydney.cpa.erp.feaa;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The client field values we have already paid a round trip for, keyed by their database field name.
+ *
+ * Profiles hold no AuthToken, so they can be shared between sessions (see ClientCache) without keeping a
+ * logged out token alive.
+ *
+ * Fields the client doesn't have are remembered as well, with the time they were found missing, since walking the
+ * contact chain asks for several fields most clients don't have. Whether to trust such an entry is up to the
+ * reader (see ClientImpl), and it is only trusted for ABSENT_MILLIS, so a field filled in later is picked up.
+ * That time can be set with -Dfeaa.clients.absentMillis=n.
+ */
+public class ClientProfile {
+    private static final long ABSENT_MILLIS = Long.getLong("feaa.clients.absentMillis", 60_000);
+
+    private final Map<String, String> values = new ConcurrentHashMap<>();
+    private final Map<String, Long> absentSince = new ConcurrentHashMap<>(); // field -> System.nanoTime it was found missing
+    private final ClientCache owner;
+
+    /**
+     * Creates a profile that is private to a single client object.
+     */
+    public ClientProfile() {
+        this(null);
+    }
+
+    ClientProfile(ClientCache owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Looks a field up without counting it as a cache lookup, see recordLookup
+     * @param fieldName database name of the field
+     * @return the known value, or null if the client doesn't have it or it still has to be fetched
+     */
+    public String get(String fieldName) {
+        return values.get(fieldName);
+    }
+
+    /**
+     *
+     * @param fieldName database name of the field
+     * @return true if the field was found missing less than ABSENT_MILLIS ago
+     */
+    public boolean isAbsent(String fieldName) {
+        Long since = absentSince.get(fieldName);
+        if (null == since) {
+            return false;
+        }
+        if (System.nanoTime() - since >= TimeUnit.MILLISECONDS.toNanos(ABSENT_MILLIS)) {
+            absentSince.remove(fieldName, since);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     *
+     * @param fieldName database name of the field
+     * @param value value to remember, null if the client doesn't have the field
+     */
+    public void put(String fieldName, String value) {
+        if (value != null) {
+            values.put(fieldName, value);
+            absentSince.remove(fieldName);
+        } else {
+            values.remove(fieldName);
+            absentSince.put(fieldName, System.nanoTime());
+        }
+    }
+
+    /**
+     * Counts one field read against the cache statistics, if this profile belongs to a ClientCache.
+     * Readers call this once per field read, so a read is never counted twice.
+     * @param hit true if the read was answered without going to the database
+     */
+    public void recordLookup(boolean hit) {
+        if (owner != null) {
+            owner.recordLookup(hit);
+        }
+    }
+
+    /**
+     *
+     * @param profile field name to value, as loaded from the database
+     */
+    public void putAll(Map<String, String> profile) {
+        if (profile != null) {
+            profile.forEach(this::put);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package au.edu.sydney.cpa.erp.feaa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * What happened to the orders of one UoW commit. A failed save doesn't stop the other orders being saved,
+ * it is recorded here against its order ID instead. Journal writes that failed during the session are recorded
+ * here too, the orders were still saved but weren't protected against a crash in the meantime.
+ */
+public class CommitReport {
+    private final Set<Integer> savedOrderIDs;
+    private final Map<Integer, RuntimeException> failures;
+    private final int savesAvoided;
+    private final long commitNanos;
+    private final List<RuntimeException> journalFailures;
+
+    public CommitReport(Set<Integer> savedOrderIDs, Map<Integer, RuntimeException> failures, int savesAvoided, long commitNanos) {
+        this(savedOrderIDs, failures, savesAvoided, commitNanos, Collections.emptyList());
+    }
+
+    public CommitReport(Set<Integer> savedOrderIDs, Map<Integer, RuntimeException> failures, int savesAvoided, long commitNanos,
+                        List<RuntimeException> journalFailures) {
+        this.savedOrderIDs = Collections.unmodifiableSet(new TreeSet<>(savedOrderIDs));
+        this.failures = Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+        this.savesAvoided = savesAvoided;
+        this.commitNanos = commitNanos;
+        this.journalFailures = Collections.unmodifiableList(new ArrayList<>(journalFailures));
+    }
+
+    /**
+     *
+     * @param journalFailures journal writes that failed during the session
+     * @return the same report with the journal failures added
+     */
+    public CommitReport withJournalFailures(List<RuntimeException> journalFailures) {
+        List<RuntimeException> all = new ArrayList<>(this.journalFailures);
+        all.addAll(journalFailures);
+        return new CommitReport(savedOrderIDs, failures, savesAvoided, commitNanos, all);
+    }
+
+    /**
+     *
+     * @return ids of the orders that reached the database
+     */
+    public Set<Integer> getSavedOrderIDs() {
+        return savedOrderIDs;
+    }
+
+    /**
+     *
+     * @return order id to the error its last save failed with
+     */
+    public Map<Integer, RuntimeException> getFailures() {
+        return failures;
+    }
+
+    /**
+     *
+     * @return number of times an order was registered again without having changed, so wasn't saved again
+     */
+    public int getSavesAvoided() {
+        return savesAvoided;
+    }
+
+    /**
+     *
+     * @return every journal write, removal or compaction that failed, oldest first
+     */
+    public List<RuntimeException> getJournalFailures() {
+        return journalFailures;
+    }
+
+    /**
+     *
+     * @return true if every order was saved
+     */
+    public boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+
+    /**
+     *
+     * @return how long commit took, in milliseconds
+     */
+    public double getCommitMillis() {
+        return commitNanos / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        String result = String.format("%d saved, %d failed %s, %d unchanged saves skipped in %.1fms", savedOrderIDs.size(),
+                failures.size(), failures.keySet(), savesAvoided, getCommitMillis());
+        return journalFailures.isEmpty() ? result : result + ", " + journalFailures.size() + " journal writes failed";
+    }
+}
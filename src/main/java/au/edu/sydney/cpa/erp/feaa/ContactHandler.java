@@ -6,8 +6,12 @@ import au.edu.sydney.cpa.erp.ordering.Client;
 import com.sun.net.httpserver.Filter;
 
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 
 /**
  *
@@ -22,12 +26,21 @@ import java.util.List;
  *
  * Consequences: The contact methods are now all intertwined by implementors of chainable interface.
  *
+ * Walking the chain reads the client's fields one link at a time, each a 1 second round trip, so a client who
+ * can only be mailed paid for every field of every link before it. Each link now declares the fields it reads,
+ * and they are all fetched in parallel before the chain runs. The chain itself is unchanged, so the same
+ * method is picked as before, only without the wait. Turn this off with -Dfeaa.contact.prefetch=false.
+ * The fetches run on the calling session's own pool (see newPrefetchPool), so sessions never queue up behind
+ * each other's fetches, and the pool goes away when the session logs out.
+ * In VIRTUAL mode the chain itself also runs on a virtual thread, see ExecutionMode.call.
  *
  */
 public class ContactHandler {
+    private static final boolean PREFETCH = !"false".equalsIgnoreCase(System.getProperty("feaa.contact.prefetch"));
+    private static final int PREFETCH_THREADS = 11; // one per client field
 
     /**
-     * Sets up the chain and gets ready to send.
+     * Sets up the chain and gets ready to send, without prefetching the client's fields.
      * @param token
      * @param client
      * @param priority
@@ -36,6 +49,20 @@ public class ContactHandler {
      */
 
     public static boolean sendInvoice(AuthToken token, Client client, List<Chainable> priority, String data){
+        return sendInvoice(token, client, priority, data, null);
+    }
+
+    /**
+     * Sets up the chain and gets ready to send.
+     * @param token
+     * @param client
+     * @param priority
+     * @param data
+     * @param prefetchPool session's pool from newPrefetchPool the client's fields are fetched on, null to skip that
+     * @return true or false it can be sent
+     */
+    public static boolean sendInvoice(AuthToken token, Client client, List<Chainable> priority, String data,
+                                      Executor prefetchPool){
 
        /*I actually realized this pretty late in the assignment, lol, a CoR is just a linkedlist with a fancy name,
        * This implementation is much better*/
@@ -48,7 +75,33 @@ public class ContactHandler {
                //I am setting the CoR such that it follows a linklist, I set the first chain and make the first chain connect to the i+1 element in the list
            }
        }
-       return priority.get(0).canSend(client,token,data);
+       if (PREFETCH && null != prefetchPool && client instanceof ClientImpl) {
+           prefetch((ClientImpl) client, priority, prefetchPool);
+       }
+       return ExecutionMode.current().call(() -> priority.get(0).canSend(client,token,data));
+    }
+
+    /**
+     * Fetches every field any link of the chain could read, all at once
+     * @param client client the invoice is going to
+     * @param priority links of the chain
+     * @param pool pool the fetches run on
+     */
+    private static void prefetch(ClientImpl client, List<Chainable> priority, Executor pool) {
+        Set<String> fields = new LinkedHashSet<>();
+        for (Chainable link : priority) {
+            fields.addAll(link.getRequiredFields());
+        }
+        client.prefetch(fields, pool);
+    }
+
+    /**
+     * Makes a pool for one session's prefetches, enough threads to fetch every field of a client at once. Its
+     * threads only live while there is work, and the session shuts it down when it logs out.
+     * @return a new pool for the current ExecutionMode, owned by the caller
+     */
+    public static ExecutorService newPrefetchPool() {
+        return ExecutionMode.current().newExecutor("contact-prefetch", PREFETCH_THREADS);
     }
 
 
@@ -5,6 +5,9 @@ import au.edu.sydney.cpa.erp.contact.CarrierPigeon;
 import au.edu.sydney.cpa.erp.contact.Email;
 import au.edu.sydney.cpa.erp.ordering.Client;
 
+import java.util.Arrays;
+import java.util.List;
+
 public class EmailSend implements Chainable {
 
     Chainable next;
@@ -52,4 +55,13 @@ public class EmailSend implements Chainable {
     public void setNextChain(Chainable chain) {
 
     }
+
+    /**
+     *
+     * @return the client fields canSend reads, so they can be fetched before the chain runs
+     */
+    @Override
+    public List<String> getRequiredFields() {
+        return Arrays.asList("emailAddress", "fName", "lName");
+    }
 }
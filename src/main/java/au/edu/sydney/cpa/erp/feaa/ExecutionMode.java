@@ -0,0 +1,181 @@
+package au.edu.sydney.cpa.erp.feaa;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * How the FEAA runs its blocking work (facade calls in AsyncFEAAFacade, background saves in WriteBehindQueue,
+ * and the database and contact calls FEAAFacade and ContactHandler make for the CLI, see call).
+ *
+ * Everything that blocks here is waiting on the database or a contact method, not using the CPU, so with
+ * VIRTUAL each task gets its own virtual thread and thousands of sessions can wait at once without thousands of
+ * platform threads. PLATFORM keeps the old fixed pools.
+ *
+ * We still build for Java 11, so virtual threads are looked up by reflection. On a JVM older than 21 VIRTUAL
+ * falls back to a cached pool of daemon threads, which also gives every waiting task its own thread, just a
+ * more expensive one.
+ *
+ * Picked with -Dfeaa.executionMode=platform|virtual, platform by default.
+ */
+public enum ExecutionMode {
+    PLATFORM,
+    VIRTUAL;
+
+    public static final String PROPERTY = "feaa.executionMode";
+
+    private static final Method NEW_VIRTUAL_EXECUTOR = findVirtualExecutorFactory();
+    private static final Method IS_VIRTUAL = findIsVirtual();
+    private static ExecutorService blockingCalls; // VIRTUAL executor for call(), started on first use
+
+    /**
+     *
+     * @return the mode set by -Dfeaa.executionMode, PLATFORM if it is missing or unknown
+     */
+    public static ExecutionMode current() {
+        String mode = System.getProperty(PROPERTY);
+        if (null == mode || mode.isEmpty()) {
+            return PLATFORM;
+        }
+
+        try {
+            return valueOf(mode.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown execution mode " + mode + ", using platform threads");
+            return PLATFORM;
+        }
+    }
+
+    /**
+     *
+     * @return true if this JVM can run tasks on virtual threads
+     */
+    public static boolean virtualThreadsAvailable() {
+        return null != NEW_VIRTUAL_EXECUTOR;
+    }
+
+    /**
+     * Makes an executor for blocking work in this mode. The caller owns it and has to shut it down.
+     * @param name prefix for the names of the platform threads
+     * @param platformThreads number of threads in PLATFORM mode, ignored by VIRTUAL
+     * @return a fixed pool of daemon threads for PLATFORM, one virtual thread per task for VIRTUAL
+     */
+    public ExecutorService newExecutor(String name, int platformThreads) {
+        if (platformThreads < 1) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+
+        if (this == PLATFORM) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(platformThreads, platformThreads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), daemonThreads(name));
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+
+        if (null != NEW_VIRTUAL_EXECUTOR) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Could not start virtual threads, using a cached pool: " + e);
+            }
+        }
+        return Executors.newCachedThreadPool(daemonThreads(name));
+    }
+
+    /**
+     * Runs a blocking call the caller waits for anyway. PLATFORM runs it right here. VIRTUAL hands it to a virtual
+     * thread and waits for it, unless the caller is already on one of the threads this class starts, so the
+     * database or contact method blocks a virtual thread rather than the caller's platform thread.
+     * @param task the blocking call
+     * @param <T> what it returns
+     * @return whatever task returned, anything it threw is thrown again as is
+     */
+    public <T> T call(Supplier<T> task) {
+        if (this == PLATFORM || onOwnThread()) {
+            return task.get();
+        }
+
+        try {
+            return CompletableFuture.supplyAsync(task, getBlockingCalls()).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * See call(Supplier)
+     * @param task the blocking call
+     */
+    public void run(Runnable task) {
+        call(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    private static synchronized ExecutorService getBlockingCalls() {
+        if (null == blockingCalls) {
+            blockingCalls = VIRTUAL.newExecutor("feaa-blocking", 1);
+        }
+        return blockingCalls;
+    }
+
+    /**
+     *
+     * @return true on a virtual thread or a daemon thread made by this class, where blocking is already fine
+     */
+    private static boolean onOwnThread() {
+        Thread current = Thread.currentThread();
+        if (current instanceof Worker) {
+            return true;
+        }
+        try {
+            return null != IS_VIRTUAL && (Boolean) IS_VIRTUAL.invoke(current);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> new Worker(runnable, name + "-" + count.incrementAndGet());
+    }
+
+    private static class Worker extends Thread {
+        private Worker(Runnable runnable, String name) {
+            super(runnable, name);
+            setDaemon(true); // never keep the CLI alive on quit
+        }
+    }
+
+    private static Method findVirtualExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null; // older than Java 21
+        }
+    }
+
+    private static Method findIsVirtual() {
+        try {
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
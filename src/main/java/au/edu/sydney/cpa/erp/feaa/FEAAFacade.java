@@ -4,18 +4,32 @@ import au.edu.sydney.cpa.erp.auth.AuthModule;
 import au.edu.sydney.cpa.erp.auth.AuthToken;
 import au.edu.sydney.cpa.erp.contact.Mail;
 import au.edu.sydney.cpa.erp.contact.SMS;
+import au.edu.sydney.cpa.erp.database.OrderSummary;
 import au.edu.sydney.cpa.erp.database.TestDatabase;
 import au.edu.sydney.cpa.erp.ordering.Client;
 import au.edu.sydney.cpa.erp.ordering.Order;
 import au.edu.sydney.cpa.erp.ordering.Report;
 import au.edu.sydney.cpa.erp.feaa.ordering.*;
+import au.edu.sydney.cpa.erp.feaa.reports.MappedReportStore;
+import au.edu.sydney.cpa.erp.feaa.reports.ReportFingerprint;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import au.edu.sydney.cpa.erp.feaa.reports.ReportDatabase;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
 
 @SuppressWarnings("Duplicates")
 
@@ -31,21 +45,105 @@ import java.util.Objects;
  */
 
 public class FEAAFacade {
-    private AuthToken token;
+    // Set this to a file path to keep report data off heap in a memory mapped file, see MappedReportStore
+    public static final String MAPPED_REPORTS_PROPERTY = "feaa.reports.file";
+    private static MappedReportStore mappedReportStore;
+    // Set this to a file path to journal unsaved orders to disk, so a crash doesn't lose them, see UoWJournal.
+    // Needs MAPPED_REPORTS_PROPERTY as well, otherwise the reports are regenerated every run and can't be found again.
+    public static final String JOURNAL_PROPERTY = "feaa.uow.journal";
+    private static final int ORDER_PAGE_SIZE = 100; // summary rows read per round trip when listing
+    private static final int ORDER_CACHE_SIZE = 256; // orders kept by the read-through cache, least recently used go first
+
+    private volatile AuthToken token; // read by AsyncFEAAFacade threads as well as the CLI
     private UoW uoW = new UoW();
+    private CommitReport lastCommitReport;
+    private UoWJournal journal; // open from login to logout when journaling is on
+    private int recoveredOrders; // orders brought back from the journal at the last login
+    // Orders read from the database this session, concurrencyLevel 1 so eviction is strictly least recently used
+    private final Cache<Integer, Order> orderCache = CacheBuilder.newBuilder()
+            .maximumSize(ORDER_CACHE_SIZE)
+            .concurrencyLevel(1)
+            .build();
+    private final ClientIdIndex clientIDs = new ClientIdIndex(); // valid client IDs for createOrder, see ClientIdIndex
+    private final OrderIdAllocator orderIDs = new OrderIdAllocator(); // IDs for new orders, reserved a block at a time
+    // In VIRTUAL mode the database calls below wait on virtual threads rather than the CLI's, see ExecutionMode.call
+    private final ExecutionMode mode = ExecutionMode.current();
+    private volatile ExecutorService prefetchPool; // this session's contact field fetches, from login to logout
 
     /**
      * Logs the user into the system, returns true or false if they can be looged
      * @param userName
      * @param password
      * @return true or false, if able to be logged in
+     * @throws IllegalStateException if journaling is turned on without the mapped report store
+     * @throws java.io.UncheckedIOException if the journal can't be opened or read, e.g. another session has it open.
+     * Nobody is left logged in either way.
      */
     public boolean login(String userName, String password) {
 
         token = AuthModule.login(userName, password);
+        orderCache.invalidateAll(); // nothing read by a previous session is trusted
+        clientIDs.invalidate();
+        if (null != token) {
+            try {
+                recoveredOrders = recoverJournal(); // orders a crashed session never saved are registered again first
+            } catch (RuntimeException e) {
+                AuthModule.logout(token);
+                token = null;
+                throw e;
+            }
+            uoW.begin(token); // orders start saving in the background as soon as they are registered
+            shutdownPrefetchPool(); // logged in again without logging out
+            prefetchPool = ContactHandler.newPrefetchPool();
+        }
         return null != token;
     }
 
+    /**
+     * Opens the journal, if journaling is turned on, and registers whatever it still holds with the UoW
+     * @return number of orders recovered
+     */
+    private int recoverJournal() {
+        String file = System.getProperty(JOURNAL_PROPERTY);
+        if (null == file || file.isEmpty()) {
+            return 0;
+        }
+        if (null == getMappedReportStore()) {
+            throw new IllegalStateException(JOURNAL_PROPERTY + " needs " + MAPPED_REPORTS_PROPERTY +
+                    " to be set as well, so journaled orders can find their reports again");
+        }
+
+        if (null == journal) {
+            try {
+                journal = new UoWJournal(Paths.get(file));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open journal " + file, e);
+            }
+            uoW.setJournal(journal);
+        }
+
+        // The journal only holds report fingerprints, the mapped reports keep theirs from run to run
+        Map<Long, Report> reportsByFingerprint = new HashMap<>();
+        for (Report report : getAllReports()) {
+            reportsByFingerprint.putIfAbsent(ReportFingerprint.of(report), report);
+        }
+
+        int recovered = uoW.recover(reportsByFingerprint::get);
+        if (recovered > 0) {
+            // The database has forgotten these IDs were handed out, new orders mustn't be given them again
+            orderIDs.skipPast(Collections.max(uoW.getRegistered().keySet()));
+        }
+        return recovered;
+    }
+
+    /**
+     *
+     * @return number of unsaved orders recovered from the journal at the last login, see JOURNAL_PROPERTY
+     */
+    public int getRecoveredOrderCount() {
+        return recoveredOrders;
+    }
+
     /**
      *
      * @return retrieves a list of all the orders
@@ -57,14 +155,63 @@ public class FEAAFacade {
 
         TestDatabase database = TestDatabase.getInstance();
 
-        List<Order> orders = database.getOrders(token);
-
         List<Integer> result = new ArrayList<>();
 
-        for (Order order : orders) {
-            result.add(order.getOrderID());
+        // Paged over the summary table, so listing IDs never copies an order at all
+        int afterID = -1;
+        List<OrderSummary> page;
+        do {
+            int after = afterID;
+            page = mode.call(() -> database.getOrderSummaries(token, after, ORDER_PAGE_SIZE));
+            for (OrderSummary summary : page) {
+                result.add(summary.getOrderID());
+            }
+            if (!page.isEmpty()) {
+                afterID = page.get(page.size() - 1).getOrderID();
+            }
+        } while (page.size() == ORDER_PAGE_SIZE);
+
+        return result;
+    }
+
+    /**
+     * Pages through the order summaries, so list screens never have to load whole orders.
+     * Orders created or changed this session that haven't reached the database yet are summarised from the UoW,
+     * so their rows are never stale.
+     * @param afterOrderID only orders with a greater id are returned, -1 to start from the beginning
+     * @param limit maximum number of summaries to return
+     * @return up to limit summaries in order id order, an empty list once there are no more
+     */
+    public List<OrderSummary> getOrderSummaries(int afterOrderID, int limit) {
+        if (null == token) {
+            throw new SecurityException();
+        }
+
+        List<OrderSummary> saved = mode.call(() -> TestDatabase.getInstance().getOrderSummaries(token, afterOrderID, limit));
+        Map<Integer, Order> registered = uoW.getRegistered();
+        if (registered.isEmpty()) {
+            return saved;
+        }
+
+        // A full page means there may be saved rows past its last ID, so registered orders past it wait for a later page
+        int lastID = saved.isEmpty() || saved.size() < limit ? Integer.MAX_VALUE : saved.get(saved.size() - 1).getOrderID();
+        TreeMap<Integer, OrderSummary> merged = new TreeMap<>();
+        for (OrderSummary summary : saved) {
+            merged.put(summary.getOrderID(), summary);
+        }
+        for (Order order : registered.values()) {
+            if (order.getOrderID() > afterOrderID && order.getOrderID() <= lastID) {
+                merged.put(order.getOrderID(), OrderSummary.of(order));
+            }
         }
 
+        List<OrderSummary> result = new ArrayList<>(Math.min(limit, merged.size()));
+        for (OrderSummary summary : merged.values()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.add(summary);
+        }
         return result;
     }
 
@@ -89,11 +236,11 @@ public class FEAAFacade {
 
         Order order;
 
-        if (!TestDatabase.getInstance().getClientIDs(token).contains(clientID)) {
+        if (!mode.call(() -> clientIDs.contains(token, clientID))) {
             throw new IllegalArgumentException("Invalid client ID");
         }
 
-        int id = TestDatabase.getInstance().getNextOrderID();
+        int id = mode.call(orderIDs::nextID);
 
         if (isScheduled) {
             if (1 == orderType) { // 1 is regular accounting
@@ -140,7 +287,16 @@ public class FEAAFacade {
         }
 
         TestDatabase database = TestDatabase.getInstance();
-        return database.getClientIDs(token);
+        List<Integer> result = mode.call(() -> database.getClientIDs(token));
+        clientIDs.refresh(result);
+        return result;
+    }
+
+    /**
+     * Makes the next createOrder read the client IDs from the database again, e.g. after clients are added or removed
+     */
+    public void invalidateClientIDs() {
+        clientIDs.invalidate();
     }
 
     /**
@@ -153,7 +309,26 @@ public class FEAAFacade {
             throw new SecurityException();
         }
 
-        return new ClientImpl(token, id);
+        // The profile is shared by every session, the client object itself (and so the token) is not
+        return ClientImpl.lazy(token, id, ClientCache.getInstance().getProfile(id));
+    }
+
+    /**
+     * Loads several clients in a single round trip, unknown ids are left out
+     * @param ids
+     * @return client id to Client, in the same order as the ids passed
+     */
+    public Map<Integer, Client> getClients(List<Integer> ids) {
+        if (null == token) {
+            throw new SecurityException();
+        }
+
+        Map<Integer, Map<String, String>> profiles = mode.call(() -> TestDatabase.getInstance().getClientProfiles(token, ids));
+
+        Map<Integer, Client> result = new LinkedHashMap<>();
+        ClientCache cache = ClientCache.getInstance();
+        profiles.forEach((id, profile) -> result.put(id, ClientImpl.fromProfile(token, id, profile, cache.getProfile(id))));
+        return result;
     }
 
     public boolean removeOrder(int id) {
@@ -161,8 +336,10 @@ public class FEAAFacade {
             throw new SecurityException();
         }
 
+        uoW.forget(id); // otherwise the UoW would save it again, or findOrder would still hand it out
+        orderCache.invalidate(id);
         TestDatabase database = TestDatabase.getInstance();
-        return database.removeOrder(token, id);
+        return mode.call(() -> database.removeOrder(token, id));
     }
 
     public List<Report> getAllReports() {
@@ -170,9 +347,25 @@ public class FEAAFacade {
             throw new SecurityException();
         }
 
+        MappedReportStore mappedReports = getMappedReportStore();
+        if (null != mappedReports) {
+            // Off heap mode, the first run spills the reports and every later run just maps the file
+            return new ArrayList<>(mappedReports.getReports(ReportDatabase::getTestReports));
+        }
+
         return new ArrayList<>(ReportDatabase.getTestReports());
     }
 
+    private static synchronized MappedReportStore getMappedReportStore() {
+        if (null == mappedReportStore) {
+            String file = System.getProperty(MAPPED_REPORTS_PROPERTY);
+            if (null != file && !file.isEmpty()) {
+                mappedReportStore = new MappedReportStore(Paths.get(file));
+            }
+        }
+        return mappedReportStore;
+    }
+
     /**
      * Finalizes and prepares the order to be sent
      * @param orderID
@@ -225,38 +418,74 @@ public class FEAAFacade {
         }
 
 
-        Order order = TestDatabase.getInstance().getOrder(token, orderID);
-
-        if(order == null)
-        {
-            order = uoW.getTemporary(orderID);
-        }
+        Order order = findOrder(orderID);
         order.finalise();
+        uoW.RegisterDirty(order); // the finalised order still has to be saved
+        orderCache.invalidate(orderID); // the UoW holds the newest copy now
 
-        return ContactHandler.sendInvoice(token, getClient(order.getClient()), contactPriorityAsMethods, order.generateInvoiceData());
+        // Walking the chain asks for fields most clients don't have, so trust the cache's record of missing ones
+        Client client = ClientImpl.forSending(token, order.getClient(), ClientCache.getInstance().getProfile(order.getClient()));
+        return ContactHandler.sendInvoice(token, client, contactPriorityAsMethods, order.generateInvoiceData(), prefetchPool);
     }
 
     /**
      * Logs the user out of the system
      */
     public void logout() {
-     /* new Thread(()-> uoW.commit(token)).start();
-       try{
-           Thread.sleep(10);
-
-       }catch (InterruptedException e)
-       {
-
+       // Orders have been saving in the background all session, so this only waits for the last few
+       // saves to land. The token has to stay valid until then, so we only log out afterwards.
+       CommitReport report = mode.call(() -> uoW.commit(token));
+       if (!report.isSuccessful()) {
+           System.err.println("Some orders could not be saved: " + report);
        }
-       To save much faster and do other task
-       So this basically kinda...works, however when i logout and log back in I get a security error, this only happens if i create two or orders
-       I have a feeling the problem is due to security auth being set to null.
-       UNCOMMENT ME AND REMOVE uoW.commit(token) to speed me up.
-        */
-       uoW.commit(token);    // Commits all the changes in one go, this simply means lag is deferred to the log out stage of the program.
+       lastCommitReport = report;
+       orderCache.invalidateAll();
+       clientIDs.invalidate();
+       IOException closeFailure = closeJournal();
+       shutdownPrefetchPool();
        AuthModule.logout(token);
         token = null;
 
+        if (null != closeFailure) {
+            throw new UncheckedIOException("Could not close journal", closeFailure);
+        }
+    }
+
+    private void shutdownPrefetchPool() {
+        ExecutorService pool = prefetchPool;
+        prefetchPool = null;
+        if (null != pool) {
+            pool.shutdown(); // fetches already started still finish
+        }
+    }
+
+    /**
+     * Closes the journal so another session can open it. Whatever the commit couldn't save stays in it and is
+     * recovered at the next login.
+     * @return the error closing it, null if it closed fine or journaling is off
+     */
+    private IOException closeJournal() {
+        if (null == journal) {
+            return null;
+        }
+
+        uoW.setJournal(null);
+        try {
+            journal.close();
+            return null;
+        } catch (IOException e) {
+            return e;
+        } finally {
+            journal = null;
+        }
+    }
+
+    /**
+     *
+     * @return what happened to the orders saved at the last logout, null if nobody has logged out yet
+     */
+    public CommitReport getLastCommitReport() {
+        return lastCommitReport;
     }
 
     /**
@@ -269,10 +498,7 @@ public class FEAAFacade {
             throw new SecurityException();
         }
 
-        Order order = TestDatabase.getInstance().getOrder(token, orderID);
-        if (null == order) {
-            order = uoW.getTemporary(orderID);
-        }
+        Order order = findOrder(orderID);
 
         return order.getTotalCommission();
     }
@@ -288,16 +514,11 @@ public class FEAAFacade {
             throw new SecurityException();
         }
 
-        Order order = TestDatabase.getInstance().getOrder(token, orderID);
-
-
-        if (null == order)
-            {
-                order = uoW.getTemporary(orderID);
-            }
+        Order order = findOrder(orderID);
 
         order.setReport(report, numEmployees);
         uoW.RegisterClean(order);
+        orderCache.invalidate(orderID); // the UoW holds the newest copy now
         //TestDatabase.getInstance().saveOrder(token, order);
     }
 
@@ -306,11 +527,7 @@ public class FEAAFacade {
             throw new SecurityException();
         }
 
-        Order order = TestDatabase.getInstance().getOrder(token, orderID);
-
-        if (null == order) {
-            order = uoW.getTemporary(orderID);
-        }
+        Order order = findOrder(orderID);
 
         return order.longDesc();
     }
@@ -320,14 +537,33 @@ public class FEAAFacade {
             throw new SecurityException();
         }
 
-        Order order = TestDatabase.getInstance().getOrder(token, orderID);
+        Order order = findOrder(orderID);
 
+        return order.shortDesc();
+    }
 
-        if (null == order) {
-            order = uoW.getTemporary(orderID);
+    /**
+     * Read-through lookup of an order. The UoW is checked first since it holds the newest copy of anything
+     * changed this session, then the cache, and only then the database, whose copy is cached for next time.
+     * @param orderID
+     * @return the order, or null if nobody has it
+     */
+    private Order findOrder(int orderID) {
+        Order order = uoW.getTemporary(orderID);
+        if (null != order) {
+            return order;
         }
 
-        return order.shortDesc();
+        order = orderCache.getIfPresent(orderID);
+        if (null != order) {
+            return order;
+        }
+
+        order = mode.call(() -> TestDatabase.getInstance().getOrder(token, orderID));
+        if (null != order) {
+            orderCache.put(orderID, order);
+        }
+        return order;
     }
 
     public List<String> getKnownContactMethods() {
@@ -10,7 +10,7 @@ public interface IUoW<T> {
 
     void  RegisterClean(Order order);
     void RegisterDirty(Order order);
-    void commit(AuthToken authToken);
+    CommitReport commit(AuthToken authToken);
     Order getTemporary(int id);
     Map getMap();
 
@@ -0,0 +1,92 @@
+package au.edu.sydney.cpa.erp.feaa;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe latency histogram with power of two millisecond buckets.
+ *
+ * Bucket 0 holds everything under 1ms, bucket i holds [2^(i-1), 2^i) ms, so the whole range from sub millisecond
+ * reads up to hour long commits fits in a few dozen longs. Percentiles are reported as the upper bound of the
+ * bucket they fall in, which is plenty to tell a 10 second save from a 300 second commit.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     *
+     * @param nanos how long the operation took, in nanoseconds
+     */
+    public void record(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, nanos));
+        int bucket = millis == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     *
+     * @return number of operations recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     *
+     * @return mean latency in milliseconds, 0 if nothing has been recorded
+     */
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0.0 : totalNanos.get() / (n * 1_000_000.0);
+    }
+
+    /**
+     *
+     * @return slowest latency recorded, in milliseconds
+     */
+    public double getMaxMillis() {
+        return maxNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     *
+     * @param percentile between 0 and 100
+     * @return upper bound in milliseconds of the bucket the percentile falls in, 0 if nothing has been recorded
+     */
+    public long getPercentileMillis(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(n * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    /**
+     *
+     * @return one line summary, for logging
+     */
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1fms p50<=%dms p99<=%dms max=%.1fms",
+                getCount(), getMeanMillis(), getPercentileMillis(50), getPercentileMillis(99), getMaxMillis());
+    }
+}
@@ -4,6 +4,9 @@ import au.edu.sydney.cpa.erp.auth.AuthToken;
 import au.edu.sydney.cpa.erp.contact.Mail;
 import au.edu.sydney.cpa.erp.ordering.Client;
 
+import java.util.Arrays;
+import java.util.List;
+
 public class MailSend implements  Chainable {
 
     //  Chainable next = new PhoneSend(); So..before I decided it would of been a smart idea to hard code, I thought the order was static.
@@ -53,4 +56,13 @@ public class MailSend implements  Chainable {
     public void setNextChain(Chainable chain) {
         this.chainable = chain;
     }
+
+    /**
+     *
+     * @return the client fields canSend reads, so they can be fetched before the chain runs
+     */
+    @Override
+    public List<String> getRequiredFields() {
+        return Arrays.asList("address", "suburb", "state", "postCode", "fName", "lName");
+    }
 }
@@ -0,0 +1,106 @@
+package au.edu.sydney.cpa.erp.feaa;
+
+import au.edu.sydney.cpa.erp.database.TestDatabase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out order IDs from blocks reserved from the database (hi/lo), so creating an order doesn't cost a database
+ * call for its ID. Only the first order of every block goes to the database, via TestDatabase.reserveOrderIDs.
+ *
+ * Taking an ID from the current block is a single atomic increment, nobody waits on a lock. Only the thread that
+ * finds the block used up reserves the next one, anyone else who runs out at the same time waits for that block
+ * rather than reserving one of their own. That wait is on a ReentrantLock, so virtual threads park on it
+ * instead of pinning their carrier for the length of the database call.
+ *
+ * Blocks are never shared or given back, so no two sessions are ever given the same ID. IDs left over in a block
+ * when the facade goes away are simply never used.
+ * The block size can be set with -Dfeaa.orders.idBlockSize=n.
+ */
+public class OrderIdAllocator {
+    private static final int DEFAULT_BLOCK_SIZE = Integer.getInteger("feaa.orders.idBlockSize", 32);
+
+    private final int blockSize;
+    private final ReentrantLock lock = new ReentrantLock(); // held while reserving or skipping
+    private volatile Block block; // null until the first ID is asked for
+
+    public OrderIdAllocator() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     *
+     * @param blockSize number of IDs reserved per database call
+     */
+    public OrderIdAllocator(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive");
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     *
+     * @return an order ID nobody else has been or will be given
+     */
+    public int nextID() {
+        while (true) {
+            Block current = block;
+            if (null != current) {
+                int id = current.next.getAndIncrement();
+                if (id < current.end) {
+                    return id;
+                }
+            }
+            reserve(current);
+        }
+    }
+
+    /**
+     * Makes sure no ID up to and including the given one is handed out from now on. Used for orders recovered
+     * from the journal, whose IDs were handed out by an earlier run the database has since forgotten.
+     * @param id highest ID already in use
+     */
+    public void skipPast(int id) {
+        lock.lock();
+        try {
+            TestDatabase.getInstance().advanceOrderIDs(id + 1);
+
+            Block current = block;
+            if (null != current && current.next.get() <= id) {
+                block = null; // the rest of it may clash, the next ID reserves a new block past id
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserves a new block, unless another thread already replaced the one that ran out
+     * @param exhausted the block the caller found empty, null if there wasn't one yet
+     */
+    private void reserve(Block exhausted) {
+        lock.lock();
+        try {
+            if (block != exhausted) {
+                return;
+            }
+
+            int first = TestDatabase.getInstance().reserveOrderIDs(blockSize);
+            block = new Block(first, first + blockSize);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Block {
+        private final AtomicInteger next;
+        private final int end; // exclusive
+
+        private Block(int first, int end) {
+            this.next = new AtomicInteger(first);
+            this.end = end;
+        }
+    }
+}
@@ -4,6 +4,9 @@ import au.edu.sydney.cpa.erp.auth.AuthToken;
 import au.edu.sydney.cpa.erp.contact.PhoneCall;
 import au.edu.sydney.cpa.erp.ordering.Client;
 
+import java.util.Arrays;
+import java.util.List;
+
 public class PhoneSend implements Chainable {
    Chainable chainable;
     public String tag = "PhoneCall";
@@ -51,4 +54,13 @@ public class PhoneSend implements Chainable {
     public void setNextChain(Chainable chain) {
         this.chainable = chain;
     }
+
+    /**
+     *
+     * @return the client fields canSend reads, so they can be fetched before the chain runs
+     */
+    @Override
+    public List<String> getRequiredFields() {
+        return Arrays.asList("phoneNumber", "fName", "lName");
+    }
 }
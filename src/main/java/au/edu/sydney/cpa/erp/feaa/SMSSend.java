@@ -4,6 +4,9 @@ import au.edu.sydney.cpa.erp.auth.AuthToken;
 import au.edu.sydney.cpa.erp.contact.SMS;
 import au.edu.sydney.cpa.erp.ordering.Client;
 
+import java.util.Arrays;
+import java.util.List;
+
 public class SMSSend implements Chainable {
 
     Chainable chainable;
@@ -42,4 +45,13 @@ public class SMSSend implements Chainable {
     public void setNextChain(Chainable chain) {
 
     }
+
+    /**
+     *
+     * @return the client fields canSend reads, so they can be fetched before the chain runs
+     */
+    @Override
+    public List<String> getRequiredFields() {
+        return Arrays.asList("phoneNumber", "fName", "lName");
+    }
 }
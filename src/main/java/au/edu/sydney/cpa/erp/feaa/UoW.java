@@ -1,24 +1,121 @@
 package au.edu.sydney.cpa.erp.feaa;
 import au.edu.sydney.cpa.erp.auth.AuthToken;
-import au.edu.sydney.cpa.erp.database.TestDatabase;
+import au.edu.sydney.cpa.erp.feaa.ordering.ChangeTracked;
 import au.edu.sydney.cpa.erp.ordering.Order;
+import au.edu.sydney.cpa.erp.ordering.Report;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongFunction;
 
+/**
+ * Unit of work holding the orders registered this session until they are saved.
+ * Registration, lookup and commit hold the UoW's lock, since an AsyncFEAAFacade registers orders from its own threads.
+ * It is a ReentrantLock rather than a monitor, so a virtual thread waiting in commit for the last saves parks
+ * instead of pinning its carrier thread.
+ */
 public class UoW implements IUoW<Order> {
      Map<Integer,Order> memory; //One map for unedited objects
      Map<Integer,Order> dirtyMemory; //Another for edited objects.
+     private final ReentrantLock lock = new ReentrantLock(); //Guards the maps and everything below
+     private final WriteBehindQueue writeBehind; //Saves registered orders in the background, several at a time
+     private final LatencyHistogram commitLatency = new LatencyHistogram();
+     private final Map<Integer, Long> scheduledVersions = new HashMap<>(); //Version of each order last handed to writeBehind
+     private int savesAvoided = 0; //Unchanged orders not saved again since the last commit
+     private UoWJournal journal; //Optional, keeps registered orders on disk until they are committed
+     private final List<RuntimeException> journalFailures = new ArrayList<>(); //Since the last commit, handed back in its report
+     private AuthToken authToken;
 
 
 
    public UoW()
    {
+       this(new WriteBehindQueue());
+   }
+
+    /**
+     *
+     * @param saveExecutor executor the saves fan out over, e.g. a bounded pool or a thread per save
+     */
+   public UoW(ExecutorService saveExecutor)
+   {
+       this(new WriteBehindQueue(saveExecutor));
+   }
+
+   private UoW(WriteBehindQueue writeBehind)
+   {
+       this.writeBehind = writeBehind;
        memory = new HashMap<>();
        dirtyMemory = new HashMap<>();
    }
 
+    /**
+     * Starts a session, from now on registered orders are saved in the background straight away.
+     * @param authToken Authorization Token used for the background saves
+     */
+    public void begin(AuthToken authToken) {
+        lock.lock();
+        try {
+            this.authToken = authToken;
+
+            // Anything registered before the session started (e.g. recovered from the journal) starts saving now
+            latestOrders().forEach((id, order) -> schedule(order));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * From now on every registered order is also written to the journal, and the journal is compacted after
+     * every commit.
+     * @param journal journal to keep the registered orders in
+     */
+    public void setJournal(UoWJournal journal) {
+        lock.lock();
+        try {
+            this.journal = journal;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers every order left in the journal by a session that never committed, without writing them to the
+     * journal a second time. Call before begin, so they are saved as soon as the session starts.
+     * @param reports finds a report from its fingerprint, see OrderCodec
+     * @return number of orders recovered
+     */
+    public int recover(LongFunction<Report> reports) {
+        lock.lock();
+        try {
+            if (journal == null) {
+                return 0;
+            }
+
+            for (UoWJournal.Entry entry : journal.replay(reports)) {
+                Order order = entry.getOrder();
+                if (entry.getKind() == UoWJournal.REMOVED) {
+                    memory.remove(entry.getOrderID());
+                    dirtyMemory.remove(entry.getOrderID());
+                } else if (entry.getKind() == UoWJournal.DIRTY) {
+                    dirtyMemory.put(order.getOrderID(), order);
+                    if (memory.containsKey(order.getOrderID())) {
+                        memory.put(order.getOrderID(), order);
+                    }
+                } else {
+                    memory.put(order.getOrderID(), order);
+                }
+            }
+            return latestOrders().size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
 
     /**
      *
@@ -39,51 +136,227 @@ public class UoW implements IUoW<Order> {
 
        if(order!= null)
         {
-            memory.put(order.getOrderID(),order);
+            lock.lock();
+            try {
+                memory.put(order.getOrderID(),order);
+                journal(UoWJournal.CLEAN, order);
+                schedule(order);
+            } finally {
+                lock.unlock();
+            }
         }
    }
 
     /**
      *
-     * @param order Checks
+     * @param order Registers an order that has been changed, replacing any older copy of it we were holding
      */
    @Override
     public void RegisterDirty(Order order) {
-       if(memory.containsKey(order.getOrderID()))
-       {
-           dirtyMemory.put(order.getOrderID(),memory.get(order.getOrderID()));
-       }
-       else
+       lock.lock();
+       try {
+           if(memory.containsKey(order.getOrderID()))
+           {
+               memory.put(order.getOrderID(),order); // keep getTemporary in step with the newest copy
+           }
            dirtyMemory.put(order.getOrderID(),order);
+           journal(UoWJournal.DIRTY, order);
+           schedule(order);
+       } finally {
+           lock.unlock();
+       }
     }
 
     /**
-     * Retrieves an order that is stored in the MAP
+     * Retrieves an order that is stored in the MAP, the changed copy if there is one
      * @param id
-     * @return
+     * @return the newest copy of the order registered this session, null if it hasn't been registered
      */
     @Override
     public Order getTemporary(int id) {
+        lock.lock();
+        try {
+            Order dirty = dirtyMemory.get(id);
+            return null != dirty ? dirty : memory.get(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *
+     * @return a snapshot of every order registered this session, the changed copy where there is one
+     */
+    public Map<Integer, Order> getRegistered() {
+        lock.lock();
+        try {
+            return latestOrders();
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        return memory.get(id);
+    /**
+     * Forgets an order that is being removed. It is dropped from both maps and its background save is cancelled,
+     * waiting for it if it has already started, so the order can't be saved again behind the removal.
+     * @param id ID of the order
+     */
+    public void forget(int id) {
+        lock.lock();
+        try {
+            memory.remove(id);
+            dirtyMemory.remove(id);
+            scheduledVersions.remove(id);
+            if (journal != null) {
+                try {
+                    journal.appendRemoval(id);
+                } catch (RuntimeException e) {
+                    journalFailures.add(e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        writeBehind.cancel(id); // outside the lock, a save that has started can take a while to land
     }
 
     /**
      * Commits everything to the database when user logs out.
+     * Most of the saving has normally already happened in the background, so this mostly just waits
+     * for the write behind queue to drain. The token must stay valid until this returns.
+     * A failed save doesn't stop the rest, it ends up in the returned report instead, as does any journal write
+     * that failed during the session.
      * @param authToken
+     * @return which orders were saved and which failed
      */
     @Override
-    public void commit(AuthToken authToken){
+    public CommitReport commit(AuthToken authToken){
+      lock.lock();
+      try {
+          long start = System.nanoTime();
+          if (this.authToken == null) {
+              // Session was never started, so nothing has been queued yet. An order can be in both maps,
+              // the dirty one is the newer and each order is only queued once.
+              latestOrders().forEach((k, v) -> {
+                  if (needsSave(v)) {
+                      writeBehind.enqueue(authToken, v);
+                  }
+              });
+          }
+          writeBehind.flush();
+          Map<Integer, Order> committed = latestOrders();
+          memory.clear();
+          dirtyMemory.clear();
+          scheduledVersions.clear();
+          this.authToken = null;
 
+          long elapsed = System.nanoTime() - start;
+          commitLatency.record(elapsed);
+          CommitReport report = writeBehind.takeOutcome(elapsed, savesAvoided);
+          savesAvoided = 0;
+          compactJournal(report, committed);
+          report = report.withJournalFailures(journalFailures);
+          journalFailures.clear();
+          return report;
+      } finally {
+          lock.unlock();
+      }
+    }
 
+    /**
+     *
+     * @return time taken by each commit
+     */
+    public LatencyHistogram getCommitLatency() {
+        return commitLatency;
+    }
 
-          TestDatabase tdb = TestDatabase.getInstance();
-          memory.forEach((k, v) -> tdb.saveOrder(authToken, v));
-          dirtyMemory.forEach((k, v) -> tdb.saveOrder(authToken, v));
-          memory.clear();
-          dirtyMemory.clear();
+    /**
+     *
+     * @return time taken by each individual order save
+     */
+    public LatencyHistogram getSaveLatency() {
+        return writeBehind.getSaveLatency();
+    }
+
+    /**
+     *
+     * @return number of registered orders still waiting to be saved
+     */
+    public int getQueueDepth() {
+        return writeBehind.getQueueDepth();
+    }
+
+    /**
+     *
+     * @return every registered order, the dirty copy winning when an order is in both maps
+     */
+    private Map<Integer, Order> latestOrders() {
+        Map<Integer, Order> latest = new LinkedHashMap<>(memory);
+        latest.putAll(dirtyMemory);
+        return latest;
+    }
+
+    private void journal(byte kind, Order order) {
+        if (journal != null) {
+            try {
+                journal.append(kind, order);
+            } catch (RuntimeException e) {
+                // Losing durability shouldn't stop the employee working, the order is still saved as normal
+                journalFailures.add(e);
+            }
+        }
+    }
+
+    /**
+     * Everything that reached the database is dropped from the journal, orders whose save failed stay in it
+     * @param report outcome of the commit
+     * @param committed the orders the commit was for
+     */
+    private void compactJournal(CommitReport report, Map<Integer, Order> committed) {
+        if (journal == null) {
+            return;
+        }
+
+        List<UoWJournal.Entry> keep = new ArrayList<>();
+        for (Integer id : report.getFailures().keySet()) {
+            Order order = committed.get(id);
+            if (order != null) {
+                keep.add(new UoWJournal.Entry(UoWJournal.DIRTY, order));
+            }
+        }
 
+        try {
+            journal.compact(keep);
+        } catch (RuntimeException e) {
+            journalFailures.add(e);
+        }
+    }
+
+    private void schedule(Order order) {
+        if (authToken != null && needsSave(order)) {
+            writeBehind.enqueue(authToken, order);
+        }
+    }
 
+    /**
+     * Orders that count their changes are only saved when their version has moved since they were last queued.
+     * Anything else is always saved, since there's no way to tell whether it changed.
+     * @param order order that has been registered
+     * @return true if the order has to be saved
+     */
+    private boolean needsSave(Order order) {
+        if (!(order instanceof ChangeTracked)) {
+            return true;
+        }
+
+        long version = ((ChangeTracked) order).getVersion();
+        Long queued = scheduledVersions.put(order.getOrderID(), version);
+        if (null != queued && queued == version) {
+            savesAvoided++;
+            return false;
+        }
+        return true;
     }
 
 }
@@ -0,0 +1,376 @@
+package au.edu.sydney.cpa.erp.feaa;
+
+import au.edu.sydney.cpa.erp.feaa.ordering.OrderCodec;
+import au.edu.sydney.cpa.erp.ordering.Order;
+import au.edu.sydney.cpa.erp.ordering.Report;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+import java.util.zip.CRC32;
+
+/**
+ * Append only journal of every order registered with the UoW, so a crash doesn't lose the session's work.
+ *
+ * Appending is a single write to the end of the file. Instead of forcing every write to disk, a background thread
+ * forces the file every SYNC_INTERVAL_MILLIS if anything was written, so a burst of edits costs one fsync rather
+ * than one each, and at most the last few milliseconds of edits can be lost.
+ *
+ * On start up replay() reads the orders back so they can be registered again. Once a commit has saved them,
+ * compact() throws away everything that reached the database.
+ *
+ * File layout, everything big endian:
+ *   header:  magic, version
+ *   records: payload length, CRC32 of the payload, payload (record kind, then the order, see OrderCodec,
+ *            or for REMOVED just the order ID)
+ * A record that is cut short or fails its CRC marks the end of the journal, it was being written when we crashed.
+ *
+ * Only one journal can be open on a file at a time in this JVM, a second open fails until the first is closed,
+ * since two sessions appending to and compacting the same file would throw away each other's orders.
+ */
+public class UoWJournal implements Closeable {
+    public static final byte CLEAN = 1;
+    public static final byte DIRTY = 2;
+    public static final byte REMOVED = 3;
+
+    private static final int MAGIC = 0x464A4E4C; // "FJNL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final long SYNC_INTERVAL_MILLIS = 20;
+    private static final Set<Path> openFiles = ConcurrentHashMap.newKeySet(); // every journal file currently open
+
+    private final Path file;
+    private final Path key; // entry in openFiles
+    private final ScheduledExecutorService syncer;
+    private FileChannel channel;
+    private boolean unsynced = false; // guarded by this
+
+    /**
+     * Opens the journal, creating it if it doesn't exist yet
+     * @param file file the journal is kept in
+     * @throws IOException if the file can't be opened, isn't a journal or is already open
+     */
+    public UoWJournal(Path file) throws IOException {
+        this.file = file;
+        this.key = file.toAbsolutePath().normalize();
+        if (!openFiles.add(key)) {
+            throw new IOException("Journal " + file + " is already open by another session");
+        }
+        try {
+            this.channel = open(file);
+        } catch (IOException | RuntimeException e) {
+            openFiles.remove(key);
+            throw e;
+        }
+
+        this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "uow-journal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.scheduleWithFixedDelay(this::syncQuietly, SYNC_INTERVAL_MILLIS, SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Appends an order to the journal. It is on disk at most SYNC_INTERVAL_MILLIS later, call sync() to wait for it.
+     * @param kind CLEAN or DIRTY, matching how it was registered
+     * @param order order to record, orders OrderCodec can't write are skipped
+     */
+    public synchronized void append(byte kind, Order order) {
+        if (!OrderCodec.canEncode(order)) {
+            return;
+        }
+
+        try {
+            writeFully(channel, record(kind, order));
+            unsynced = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write to journal " + file, e);
+        }
+    }
+
+    /**
+     * Records that an order was removed, so replaying the journal doesn't bring it back
+     * @param orderID ID of the removed order
+     */
+    public synchronized void appendRemoval(int orderID) {
+        try {
+            ByteBuffer payload = ByteBuffer.allocate(1 + Integer.BYTES);
+            payload.put(REMOVED).putInt(orderID);
+            writeFully(channel, record(payload.array()));
+            unsynced = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write to journal " + file, e);
+        }
+    }
+
+    /**
+     * Forces everything appended so far onto the disk
+     */
+    public synchronized void sync() {
+        if (!unsynced) {
+            return;
+        }
+
+        try {
+            channel.force(false);
+            unsynced = false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not sync journal " + file, e);
+        }
+    }
+
+    /**
+     * Reads back every order in the journal, oldest first. A torn record at the end is cut off.
+     * @param reports finds a report from its fingerprint, see OrderCodec
+     * @return every record in the journal
+     */
+    public synchronized List<Entry> replay(LongFunction<Report> reports) {
+        List<Entry> result = new ArrayList<>();
+
+        try {
+            long position = HEADER_SIZE;
+            long size = channel.size();
+            ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+            while (position + RECORD_HEADER_SIZE <= size) {
+                recordHeader.clear();
+                readFully(channel, recordHeader, position);
+                recordHeader.flip();
+                int length = recordHeader.getInt();
+                int crc = recordHeader.getInt();
+
+                if (length <= 0 || position + RECORD_HEADER_SIZE + length > size) {
+                    break;
+                }
+
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(channel, payload, position + RECORD_HEADER_SIZE);
+                if (crc != crcOf(payload.array())) {
+                    break;
+                }
+
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload.array()));
+                byte kind = in.readByte();
+                if (kind == REMOVED) {
+                    result.add(new Entry(in.readInt()));
+                } else {
+                    result.add(new Entry(kind, OrderCodec.decode(in, reports)));
+                }
+                position += RECORD_HEADER_SIZE + length;
+            }
+
+            if (position < size) {
+                // whatever follows the last good record was still being written when the session died
+                channel.truncate(position);
+                channel.force(false);
+            }
+            channel.position(channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read journal " + file, e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Replaces the journal with just the given orders, e.g. the ones a commit couldn't save.
+     * Pass an empty collection once everything has been saved.
+     * @param keep orders that still have to be saved
+     */
+    public synchronized void compact(Collection<Entry> keep) {
+        try {
+            if (keep.isEmpty()) {
+                channel.truncate(HEADER_SIZE);
+                channel.position(HEADER_SIZE);
+                channel.force(false);
+                unsynced = false;
+                return;
+            }
+
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(out, header());
+                for (Entry entry : keep) {
+                    if (OrderCodec.canEncode(entry.getOrder())) {
+                        writeFully(out, record(entry.getKind(), entry.getOrder()));
+                    }
+                }
+                out.force(true);
+            }
+
+            channel.close();
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = open(file);
+            unsynced = false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not compact journal " + file, e);
+        }
+    }
+
+    /**
+     *
+     * @return size of the journal file in bytes
+     */
+    public synchronized long size() {
+        try {
+            return channel.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Syncs and closes the journal, after which the file can be opened again. Closing twice does nothing.
+     * @throws IOException if the last sync fails, the file is closed either way
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        syncer.shutdownNow();
+        try {
+            if (channel.isOpen()) {
+                channel.force(false);
+            }
+        } finally {
+            channel.close();
+            openFiles.remove(key);
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (RuntimeException e) {
+            System.err.println("Journal sync failed: " + e.getMessage());
+        }
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        if (channel.size() == 0) {
+            writeFully(channel, header());
+            channel.force(false);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (channel.size() < HEADER_SIZE) {
+                channel.close();
+                throw new IOException(file + " is not a journal");
+            }
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                channel.close();
+                throw new IOException(file + " is not a journal");
+            }
+        }
+
+        channel.position(channel.size());
+        return channel;
+    }
+
+    private static ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        return header;
+    }
+
+    private static ByteBuffer record(byte kind, Order order) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(kind);
+        OrderCodec.encode(order, out);
+        out.flush();
+        return record(bytes.toByteArray());
+    }
+
+    private static ByteBuffer record(byte[] payload) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        record.putInt(payload.length).putInt(crcOf(payload)).put(payload).flip();
+        return record;
+    }
+
+    private static int crcOf(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of journal");
+            }
+        }
+    }
+
+    /**
+     * One journal record: an order and how it was registered, or the removal of an order
+     */
+    public static class Entry {
+        private final byte kind;
+        private final int orderID;
+        private final Order order;
+
+        public Entry(byte kind, Order order) {
+            this.kind = kind;
+            this.orderID = order.getOrderID();
+            this.order = order;
+        }
+
+        private Entry(int removedOrderID) {
+            this.kind = REMOVED;
+            this.orderID = removedOrderID;
+            this.order = null;
+        }
+
+        /**
+         *
+         * @return CLEAN, DIRTY or REMOVED
+         */
+        public byte getKind() {
+            return kind;
+        }
+
+        public int getOrderID() {
+            return orderID;
+        }
+
+        /**
+         *
+         * @return the order, null for a REMOVED record
+         */
+        public Order getOrder() {
+            return order;
+        }
+    }
+}
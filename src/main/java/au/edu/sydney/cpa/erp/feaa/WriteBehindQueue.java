@@ -0,0 +1,365 @@
+package au.edu.sydney.cpa.erp.feaa;
+
+import au.edu.sydney.cpa.erp.auth.AuthToken;
+import au.edu.sydney.cpa.erp.database.TestDatabase;
+import au.edu.sydney.cpa.erp.ordering.Order;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind engine used by the UoW.
+ *
+ * Orders handed to this queue are saved to the database by a small pool of background workers, so the
+ * 10 second save happens while the employee keeps working instead of all at once on logout.
+ *
+ * If the same order ID is enqueued again before its save has started, the newer snapshot simply replaces
+ * the older one, so a burst of edits to one order still only costs a single save.
+ *
+ * Workers save whatever is waiting in batches (see TestDatabase.saveOrders), up to the database's maximum batch
+ * size, so the orders that pile up during one 10 second round trip all go in the next one. Saves of the same
+ * order ID never overlap, so the database always ends up holding the latest snapshot.
+ *
+ * Batches run in parallel on whatever executor the queue was given. A failed save is recorded against its order
+ * IDs rather than stopping anything, and a later successful save of the same order clears it. If the executor
+ * turns a worker down (e.g. the caller shut it down) and no other worker is left to pick up the waiting orders,
+ * they are recorded as failed too, so flush never waits for a worker that will never run.
+ * The queue's state is guarded by a ReentrantLock rather than a monitor, so a virtual thread waiting in flush or
+ * cancel parks instead of pinning its carrier thread.
+ * The default number of workers can be set with -Dfeaa.uow.saveWorkers=n.
+ */
+public class WriteBehindQueue {
+
+    private static final int DEFAULT_WORKERS = Integer.getInteger("feaa.uow.saveWorkers", 4);
+
+    private final ExecutorService workers;
+    private final int maxWorkers;
+
+    // all guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition settled = lock.newCondition(); // signalled when a batch finishes or a worker retires
+    private final Map<Integer, PendingWrite> pending = new LinkedHashMap<>(); // oldest first
+    private final Set<Integer> inFlight = new HashSet<>();
+    private int running = 0;
+
+    private final AtomicInteger activeWrites = new AtomicInteger();
+    private final AtomicInteger failedWrites = new AtomicInteger();
+    private final Set<Integer> saved = ConcurrentHashMap.newKeySet(); // saved since the last takeOutcome
+    private final Map<Integer, RuntimeException> failures = new ConcurrentHashMap<>(); // still failed
+    private final LatencyHistogram saveLatency = new LatencyHistogram();
+
+    public WriteBehindQueue() {
+        this(DEFAULT_WORKERS);
+    }
+
+    /**
+     *
+     * @param workerCount maximum number of batches allowed to be saving at the same time
+     */
+    public WriteBehindQueue(int workerCount) {
+        this(newPool(workerCount), workerCount);
+    }
+
+    /**
+     * Runs the saves on the given executor instead, e.g. one thread per save. The caller still owns it and is
+     * responsible for shutting it down.
+     * @param workers executor the saves are run on
+     */
+    public WriteBehindQueue(ExecutorService workers) {
+        this(workers, DEFAULT_WORKERS);
+    }
+
+    /**
+     *
+     * @param workers executor the saves are run on, still owned by the caller
+     * @param maxWorkers maximum number of batches allowed to be saving at the same time
+     */
+    public WriteBehindQueue(ExecutorService workers, int maxWorkers) {
+        if (null == workers) {
+            throw new IllegalArgumentException("Executor is required");
+        }
+        if (maxWorkers < 1) {
+            throw new IllegalArgumentException("Worker count must be positive");
+        }
+        this.workers = workers;
+        this.maxWorkers = maxWorkers;
+    }
+
+    private static ExecutorService newPool(int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("Worker count must be positive");
+        }
+
+        // In VIRTUAL mode every batch gets its own virtual thread, maxWorkers still caps how many run at once
+        return ExecutionMode.current().newExecutor("uow-write-behind", workerCount);
+    }
+
+    /**
+     * Schedules a save of the given order. A snapshot is taken straight away, so the caller is free to
+     * keep editing the order while the save runs in the background.
+     * @param token Authorization Token used for the save
+     * @param order order to be saved
+     */
+    public void enqueue(AuthToken token, Order order) {
+        int id = order.getOrderID();
+        // The database is picked now, so a save always lands in the database that was current when it was queued
+        PendingWrite write = new PendingWrite(id, TestDatabase.getInstance(), token, order.copy());
+
+        lock.lock();
+        try {
+            pending.remove(id); // a re-queued order goes to the back, behind the orders waiting longer
+            pending.put(id, write);
+            startWorker();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until every save scheduled so far has finished. The token used for those saves must stay
+     * valid until this returns. An interrupt doesn't cut the wait short, since the caller would go on to log
+     * out under the saves still running, it is only passed on once they have all finished.
+     */
+    public void flush() {
+        boolean interrupted = false;
+        lock.lock();
+        try {
+            while (!pending.isEmpty() || !inFlight.isEmpty()) {
+                try {
+                    settled.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drops the waiting save of an order, and if its save has already started waits for it to finish, so nothing
+     * this queue does can write the order again once this returns. Used when the order is being removed.
+     * @param id ID of the order
+     */
+    public void cancel(int id) {
+        boolean interrupted = false;
+        lock.lock();
+        try {
+            pending.remove(id);
+            while (inFlight.contains(id)) {
+                try {
+                    settled.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        failures.remove(id);
+        saved.remove(id);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hands back which orders were saved and which are still failed since the last call, and starts
+     * counting again. Call after flush() so nothing is still in flight.
+     * @param commitNanos how long the commit took, for the report
+     * @param savesAvoided number of saves skipped because the order hadn't changed, for the report
+     * @return the outcome of every save since the last call
+     */
+    public CommitReport takeOutcome(long commitNanos, int savesAvoided) {
+        Set<Integer> savedNow = new HashSet<>(saved);
+        saved.removeAll(savedNow);
+        Map<Integer, RuntimeException> failedNow = new HashMap<>(failures);
+        failedNow.forEach(failures::remove);
+        savedNow.removeAll(failedNow.keySet());
+
+        return new CommitReport(savedNow, failedNow, savesAvoided, commitNanos);
+    }
+
+    /**
+     *
+     * @return time taken by each round trip to the database, one per batch
+     */
+    public LatencyHistogram getSaveLatency() {
+        return saveLatency;
+    }
+
+    /**
+     *
+     * @return number of orders waiting for a save that has not started yet
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *
+     * @return number of batches currently talking to the database
+     */
+    public int getActiveWrites() {
+        return activeWrites.get();
+    }
+
+    /**
+     *
+     * @return number of orders whose save has failed since this queue was created
+     */
+    public int getFailedWrites() {
+        return failedWrites.get();
+    }
+
+    // caller holds lock
+    private void startWorker() {
+        if (running < maxWorkers && running < pending.size()) {
+            running++;
+            try {
+                workers.execute(this::work);
+            } catch (RejectedExecutionException e) {
+                running--;
+                if (0 == running) {
+                    failPending(e); // nobody else is going to take them
+                }
+            }
+        }
+    }
+
+    // caller holds lock
+    private void failPending(RuntimeException e) {
+        for (PendingWrite write : pending.values()) {
+            failedWrites.incrementAndGet();
+            failures.put(write.id, e);
+            saved.remove(write.id);
+        }
+        pending.clear();
+        settled.signalAll();
+    }
+
+    private void work() {
+        while (true) {
+            List<PendingWrite> batch = takeBatch();
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            try {
+                save(batch);
+            } finally {
+                lock.lock();
+                try {
+                    for (PendingWrite write : batch) {
+                        inFlight.remove(write.id);
+                    }
+                    settled.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest waiting orders that share a database and token, skipping orders already being saved.
+     * If there is nothing left to take the worker is retired.
+     * @return the next batch, empty if this worker should stop
+     */
+    private List<PendingWrite> takeBatch() {
+        lock.lock();
+        try {
+            List<PendingWrite> batch = new ArrayList<>();
+            int maxBatch = 1;
+
+            Iterator<PendingWrite> waiting = pending.values().iterator();
+            while (waiting.hasNext()) {
+                PendingWrite write = waiting.next();
+                if (inFlight.contains(write.id)) {
+                    continue; // its previous save has to land first
+                }
+
+                if (batch.isEmpty()) {
+                    maxBatch = Math.max(1, write.database.getMaxBatchSize());
+                } else if (write.database != batch.get(0).database || write.token != batch.get(0).token) {
+                    continue;
+                }
+
+                waiting.remove();
+                inFlight.add(write.id);
+                batch.add(write);
+                if (batch.size() >= maxBatch) {
+                    break;
+                }
+            }
+
+            if (batch.isEmpty()) {
+                running--;
+                settled.signalAll();
+            }
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void save(List<PendingWrite> batch) {
+        PendingWrite first = batch.get(0);
+        List<Order> snapshots = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+            snapshots.add(write.snapshot);
+        }
+
+        activeWrites.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            first.database.saveOrders(first.token, snapshots);
+            for (PendingWrite write : batch) {
+                failures.remove(write.id);
+                saved.add(write.id);
+            }
+        } catch (RuntimeException e) {
+            for (PendingWrite write : batch) {
+                failedWrites.incrementAndGet();
+                failures.put(write.id, e);
+            }
+        } finally {
+            saveLatency.record(System.nanoTime() - start);
+            activeWrites.decrementAndGet();
+        }
+    }
+
+    private static class PendingWrite {
+        private final int id;
+        private final TestDatabase database;
+        private final AuthToken token;
+        private final Order snapshot;
+
+        private PendingWrite(int id, TestDatabase database, AuthToken token, Order snapshot) {
+            this.id = id;
+            this.database = database;
+            this.token = token;
+            this.snapshot = snapshot;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package au.edu.sydney.cpa.erp.feaa.ordering;
+
+import au.edu.sydney.cpa.erp.ordering.Finalisable;
+
+/**
+ * Orders that count their own changes, so the UoW can tell an order that really changed from one that was just
+ * registered again. Copies keep the version of the order they were copied from.
+ * They also say whether they have been finalised (see Finalisable), which the Order interface itself doesn't expose.
+ */
+public interface ChangeTracked extends Finalisable {
+
+    /**
+     *
+     * @return a number that goes up every time the order changes, e.g. on setReport or finalise
+     */
+    long getVersion();
+}
@@ -13,13 +13,14 @@ import java.util.*;
  * Audits go into detail and so charge for all employees
  */
 @SuppressWarnings("Duplicates")
-public class CriticalAuditOrder implements Order {
-    private Map<Report, Integer> reports = new HashMap<>();
+public class CriticalAuditOrder implements Order, ChangeTracked {
+    private ReportIndex reports;
     private final int id;
     private LocalDateTime date;
     private int client;
     private double criticalLoading;
     private boolean finalised = false;
+    private long version = 0; // see ChangeTracked
 
 
     /**
@@ -30,7 +31,12 @@ public class CriticalAuditOrder implements Order {
      * @param criticalLoading
      */
     public CriticalAuditOrder(int id, int client, LocalDateTime date, double criticalLoading) {
+        this(id, client, date, criticalLoading, new ReportIndex());
+    }
+
+    CriticalAuditOrder(int id, int client, LocalDateTime date, double criticalLoading, ReportIndex reports) {
         this.id = id;
+        this.reports = reports;
         this.client = client;
         this.date = date;
         this.criticalLoading = criticalLoading;
@@ -55,18 +61,11 @@ public class CriticalAuditOrder implements Order {
         if (finalised) throw new IllegalStateException("Order was already finalised.");
 
         // We can't rely on equal reports having the same object identity since they get
-        // rebuilt over the network, so we have to check for presence and same values
+        // rebuilt over the network, the index finds the equal report by its fingerprint
 
-        for (Report contained: reports.keySet()) {
-            if (report.equals(contained)) {
-                report = contained;
-                break;
-            }
-
-            //(my Comment) So basically the value object, has led to me reducing this code to one line.
+        if (reports.put(report, employeeCount)) {
+            version++;
         }
-
-        reports.put(report, employeeCount);
     }
 
     /**
@@ -86,16 +85,8 @@ public class CriticalAuditOrder implements Order {
     @Override
     public int getReportEmployeeCount(Report report) {
         // We can't rely on equal reports having the same object identity since they get
-        // rebuilt over the network, so we have to check for presence and same values
-
-        for (Report contained: reports.keySet()) {
-            if (report.equals(contained)) {
-                report = contained;
-                break;
-            }
-        }
-        Integer result = reports.get(report);
-        return null == result ? 0 : result;
+        // rebuilt over the network, the index finds the equal report by its fingerprint
+        return reports.getCount(report);
     }
 
 
@@ -113,6 +104,9 @@ public class CriticalAuditOrder implements Order {
      */
     @Override
     public void finalise() {
+        if (!finalised) {
+            version++;
+        }
         this.finalised = true;
     }
 
@@ -130,15 +124,13 @@ public class CriticalAuditOrder implements Order {
      */
     @Override
     public Order copy() {
-        Order copy = new CriticalAuditOrder(id, client, date, criticalLoading);
-        for (Report report : reports.keySet()) {
-            copy.setReport(report, reports.get(report));
-        }
+        CriticalAuditOrder copy = new CriticalAuditOrder(id, client, date, criticalLoading, reports.share()); // shares the reports until either order changes
 
         if(finalised)
         {
             copy.finalise();
         }
+        copy.restoreVersion(version);
         return copy;
     }
 
@@ -205,16 +197,14 @@ public class CriticalAuditOrder implements Order {
      */
     @Override
     public double getTotalCommission() {
-        double cost = 0.0;
-        for (Report report : reports.keySet()) {
-            cost += reports.get(report) * report.getCommission();
-        }
+        double cost = reports.getSubtotal(); // kept up to date by setReport
+
         cost += cost * criticalLoading;
         return cost;
     }
 
     protected Map<Report, Integer> getReports() {
-        return reports;
+        return reports.asMap();
     }
 
     /**
@@ -230,7 +220,33 @@ public class CriticalAuditOrder implements Order {
      *
      * @return  true or false if report is finalized
      */
-    protected boolean isFinalised() {
+    @Override
+    public boolean isFinalised() {
         return finalised;
     }
+
+    /**
+     * Used by the scheduled subclass to copy itself without rebuilding the reports
+     * @return an index sharing this order's reports until either side changes
+     */
+    ReportIndex shareReports() {
+        return reports.share();
+    }
+
+    /**
+     *
+     * @return number of changes made to this order, carried over to its copies
+     */
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Used by copy() so a copy starts at the version of the order it came from
+     * @param version version of the original order
+     */
+    void restoreVersion(long version) {
+        this.version = version;
+    }
 }
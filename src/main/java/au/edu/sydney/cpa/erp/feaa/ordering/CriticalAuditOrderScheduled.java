@@ -21,6 +21,11 @@ public class CriticalAuditOrderScheduled extends CriticalAuditOrder implements S
         this.numQuarters = numQuarters;
     }
 
+    CriticalAuditOrderScheduled(int id, int customerID, LocalDateTime date, double criticalLoading, int numQuarters, ReportIndex reports) {
+        super(id, customerID, date, criticalLoading, reports);
+        this.numQuarters = numQuarters;
+    }
+
 
     /**
      *
@@ -66,13 +71,13 @@ public class CriticalAuditOrderScheduled extends CriticalAuditOrder implements S
      */
     @Override
     public Order copy() {
-        Map<Report, Integer> products = super.getReports();
-
-        Order copy = new CriticalAuditOrderScheduled(getOrderID(), getClient(), getOrderDate(), getCriticalLoading(), getNumberOfQuarters());
-        for (Report report : products.keySet()) {
-            copy.setReport(report, products.get(report));
+        // shares the reports with this order until either one changes, rather than adding them one at a time
+        CriticalAuditOrderScheduled copy = new CriticalAuditOrderScheduled(getOrderID(), getClient(), getOrderDate(), getCriticalLoading(), getNumberOfQuarters(), shareReports());
+        if (isFinalised()) {
+            copy.finalise();
         }
 
+        copy.restoreVersion(getVersion());
         return copy;
     }
 
@@ -14,21 +14,27 @@ import java.util.*;
  * threshold is reached the cost for that report remains the same.
  */
 @SuppressWarnings("Duplicates")
-public class FirstOrderType implements Order {
-    private Map<Report, Integer> reports = new HashMap<>();
+public class FirstOrderType implements Order, ChangeTracked {
+    private ReportIndex reports;
     private LocalDateTime date;
     private double criticalLoading;
     private int clientID;
     private int id;
     private int maxCountedEmployees;
     private boolean finalised = false;
+    private long version = 0; // see ChangeTracked
 
 
     public FirstOrderType(int id, int clientID, LocalDateTime date, double criticalLoading, int maxCountedEmployees) {
+        this(id, clientID, date, criticalLoading, maxCountedEmployees, new ReportIndex(maxCountedEmployees));
+    }
+
+    FirstOrderType(int id, int clientID, LocalDateTime date, double criticalLoading, int maxCountedEmployees, ReportIndex reports) {
         this.date = date;
         this.criticalLoading = criticalLoading;
         this.clientID = clientID;
         this.id = id;
+        this.reports = reports;
         this.maxCountedEmployees = maxCountedEmployees;
     }
 
@@ -51,16 +57,11 @@ public class FirstOrderType implements Order {
         if (finalised) throw new IllegalStateException("Order was already finalised.");
 
         // We can't rely on equal reports having the same object identity since they get
-        // rebuilt over the network, so we have to check for presence and same values
+        // rebuilt over the network, the index finds the equal report by its fingerprint
 
-        for (Report contained: reports.keySet()) {
-            if (report.equals(contained)) {
-                report = contained;
-                break;
-            }
+        if (reports.put(report, employeeCount)) {
+            version++;
         }
-
-        reports.put(report, employeeCount);
     }
 
     /**
@@ -81,17 +82,8 @@ public class FirstOrderType implements Order {
     @Override
     public int getReportEmployeeCount(Report report) {
         // We can't rely on equal reports having the same object identity since they get
-        // rebuilt over the network, so we have to check for presence and same values
-
-        for (Report contained: reports.keySet()) {
-            if (report.equals(getTotalCommission())) {
-                report = contained;
-                break;
-            }
-        }
-
-        Integer result = reports.get(report);
-        return null == result ? 0 : result;
+        // rebuilt over the network, the index finds the equal report by its fingerprint
+        return reports.getCount(report);
     }
 
     /**
@@ -109,16 +101,14 @@ public class FirstOrderType implements Order {
      */
     @Override
     public Order copy() {
-        Order copy = new FirstOrderType(id, clientID, date, criticalLoading, maxCountedEmployees);
-        for (Report report : reports.keySet()) {
-            copy.setReport(report, reports.get(report));
-        }
+        FirstOrderType copy = new FirstOrderType(id, clientID, date, criticalLoading, maxCountedEmployees, reports.share()); // shares the reports until either order changes
 
         if(finalised)
         {
             copy.finalise();
         }
 
+        copy.restoreVersion(version);
         return copy;
     }
 
@@ -146,10 +136,7 @@ public class FirstOrderType implements Order {
      */
     @Override
     public double getTotalCommission() {
-        double cost = 0.0;
-        for (Report report : reports.keySet()) {
-            cost += report.getCommission() * Math.min(maxCountedEmployees, reports.get(report));
-        }
+        double cost = reports.getSubtotal(); // kept up to date by setReport
 
         cost += cost * criticalLoading;
         return cost;
@@ -160,7 +147,7 @@ public class FirstOrderType implements Order {
       * @return Map of all the reports
      */
     protected Map<Report, Integer> getReports() {
-        return reports;
+        return reports.asMap();
     }
 
     /**
@@ -177,6 +164,9 @@ public class FirstOrderType implements Order {
      */
     @Override
     public void finalise() {
+        if (!finalised) {
+            version++;
+        }
         this.finalised = true;
     }
 
@@ -238,7 +228,8 @@ public class FirstOrderType implements Order {
      *
       * @return true or false if it is finalized
      */
-    protected boolean isFinalised() {
+    @Override
+    public boolean isFinalised() {
         return finalised;
     }
 
@@ -249,4 +240,29 @@ public class FirstOrderType implements Order {
     protected int getMaxCountedEmployees() {
         return maxCountedEmployees;
     }
+
+    /**
+     * Used by the scheduled subclass to copy itself without rebuilding the reports
+     * @return an index sharing this order's reports until either side changes
+     */
+    ReportIndex shareReports() {
+        return reports.share();
+    }
+
+    /**
+     *
+     * @return number of changes made to this order, carried over to its copies
+     */
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Used by copy() so a copy starts at the version of the order it came from
+     * @param version version of the original order
+     */
+    void restoreVersion(long version) {
+        this.version = version;
+    }
 }
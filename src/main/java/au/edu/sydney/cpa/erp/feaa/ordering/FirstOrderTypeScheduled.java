@@ -22,6 +22,11 @@ public class FirstOrderTypeScheduled extends FirstOrderType implements Scheduled
         this.numQuarters = numQuarters;
     }
 
+    FirstOrderTypeScheduled(int id, int clientID, LocalDateTime date, double criticalLoading, int maxCountedEmployees, int numQuarters, ReportIndex reports) {
+        super(id, clientID, date, criticalLoading, maxCountedEmployees, reports);
+        this.numQuarters = numQuarters;
+    }
+
 
     /**
      *
@@ -66,13 +71,13 @@ public class FirstOrderTypeScheduled extends FirstOrderType implements Scheduled
      */
     @Override
     public Order copy() {
-        Map<Report, Integer> products = super.getReports();
-
-        Order copy = new FirstOrderTypeScheduled(getOrderID(), getClient(), getOrderDate(), getCriticalLoading(), getMaxCountedEmployees(), numQuarters);
-        for (Report report : products.keySet()) {
-            copy.setReport(report, products.get(report));
+        // shares the reports with this order until either one changes, rather than adding them one at a time
+        FirstOrderTypeScheduled copy = new FirstOrderTypeScheduled(getOrderID(), getClient(), getOrderDate(), getCriticalLoading(), getMaxCountedEmployees(), numQuarters, shareReports());
+        if (isFinalised()) {
+            copy.finalise();
         }
 
+        copy.restoreVersion(getVersion());
         return copy;
     }
 
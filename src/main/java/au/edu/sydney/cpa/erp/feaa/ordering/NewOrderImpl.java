@@ -11,17 +11,22 @@ import java.util.*;
  * Note from Tim: this is a normal order for audit accounting work.
  */
 @SuppressWarnings("Duplicates")
-public class NewOrderImpl implements Order {
-    private Map<Report, Integer> reports = new HashMap<>();
+public class NewOrderImpl implements Order, ChangeTracked {
+    private ReportIndex reports;
     private final int id;
     private LocalDateTime date;
     private int client;
     private boolean finalised = false;
-    private boolean isDirty;
+    private long version = 0; // see ChangeTracked
 
 
     public NewOrderImpl(int id, int client, LocalDateTime date) {
+        this(id, client, date, new ReportIndex());
+    }
+
+    NewOrderImpl(int id, int client, LocalDateTime date, ReportIndex reports) {
         this.id = id;
+        this.reports = reports;
         this.client = client;
         this.date = date;
     }
@@ -47,22 +52,11 @@ public class NewOrderImpl implements Order {
         if (finalised) throw new IllegalStateException("Order was already finalised.");
 
         // We can't rely on equal reports having the same object identity since they get
-        // rebuilt over the network, so we have to check for presence and same values
-
-        for (Report contained: reports.keySet()) {
-            if (contained.getCommission() == report.getCommission() &&
-                    contained.getReportName().equals(report.getReportName()) &&
-                    Arrays.equals(contained.getLegalData(), report.getLegalData()) &&
-                    Arrays.equals(contained.getCashFlowData(), report.getCashFlowData()) &&
-                    Arrays.equals(contained.getMergesData(), report.getMergesData()) &&
-                    Arrays.equals(contained.getTallyingData(), report.getTallyingData()) &&
-                    Arrays.equals(contained.getDeductionsData(), report.getDeductionsData())) {
-                report = contained;
-                break;
-            }
-        }
+        // rebuilt over the network, the index finds the equal report by its fingerprint
 
-        reports.put(report, employeeCount);
+        if (reports.put(report, employeeCount)) {
+            version++;
+        }
     }
     /**
      *
@@ -81,22 +75,8 @@ public class NewOrderImpl implements Order {
     @Override
     public int getReportEmployeeCount(Report report) {
         // We can't rely on equal reports having the same object identity since they get
-        // rebuilt over the network, so we have to check for presence and same values
-
-        for (Report contained: reports.keySet()) {
-            if (contained.getCommission() == report.getCommission() &&
-                    contained.getReportName().equals(report.getReportName()) &&
-                    Arrays.equals(contained.getLegalData(), report.getLegalData()) &&
-                    Arrays.equals(contained.getCashFlowData(), report.getCashFlowData()) &&
-                    Arrays.equals(contained.getMergesData(), report.getMergesData()) &&
-                    Arrays.equals(contained.getTallyingData(), report.getTallyingData()) &&
-                    Arrays.equals(contained.getDeductionsData(), report.getDeductionsData())) {
-                report = contained;
-                break;
-            }
-        }
-        Integer result = reports.get(report);
-        return null == result ? 0 : result;
+        // rebuilt over the network, the index finds the equal report by its fingerprint
+        return reports.getCount(report);
     }
     /**
      * Retrieves the client id set during instantiation
@@ -111,6 +91,9 @@ public class NewOrderImpl implements Order {
      */
     @Override
     public void finalise() {
+        if (!finalised) {
+            version++;
+        }
         this.finalised = true;
     }
 
@@ -121,15 +104,13 @@ public class NewOrderImpl implements Order {
      */
     @Override
     public Order copy() {
-        Order copy = new NewOrderImpl(id, client, date);
-        for (Report report : reports.keySet()) {
-            copy.setReport(report, reports.get(report));
-        }
+        NewOrderImpl copy = new NewOrderImpl(id, client, date, reports.share()); // shares the reports until either order changes
         if(finalised)
         {
             copy.finalise();
         }
 
+        copy.restoreVersion(version);
         return copy;
     }
 
@@ -216,10 +197,7 @@ public class NewOrderImpl implements Order {
      */
     @Override
     public double getTotalCommission() {
-        double cost = 0.0;
-        for (Report report : reports.keySet()) {
-            cost += reports.get(report) * report.getCommission();
-        }
+        double cost = reports.getSubtotal(); // kept up to date by setReport
         return cost;
     }
 
@@ -228,7 +206,7 @@ public class NewOrderImpl implements Order {
      * @return a Map of the reports
      */
     protected Map<Report, Integer> getReports() {
-        return reports;
+        return reports.asMap();
     }
 
     /**
@@ -244,7 +222,33 @@ public class NewOrderImpl implements Order {
      *
      * @return checks if report is finalized or not.
      */
-    protected boolean isFinalised() {
+    @Override
+    public boolean isFinalised() {
         return finalised;
     }
+
+    /**
+     * Used by the scheduled subclass to copy itself without rebuilding the reports
+     * @return an index sharing this order's reports until either side changes
+     */
+    ReportIndex shareReports() {
+        return reports.share();
+    }
+
+    /**
+     *
+     * @return number of changes made to this order, carried over to its copies
+     */
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Used by copy() so a copy starts at the version of the order it came from
+     * @param version version of the original order
+     */
+    void restoreVersion(long version) {
+        this.version = version;
+    }
 }
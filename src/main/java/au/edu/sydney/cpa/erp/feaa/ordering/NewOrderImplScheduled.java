@@ -20,6 +20,11 @@ public class NewOrderImplScheduled extends NewOrderImpl implements ScheduledOrde
         this.numQuarters = numQuarters;
     }
 
+    NewOrderImplScheduled(int id, int customerID, LocalDateTime date, int numQuarters, ReportIndex reports) {
+        super(id, customerID, date, reports);
+        this.numQuarters = numQuarters;
+    }
+
 
     /**
      *
@@ -87,13 +92,13 @@ public class NewOrderImplScheduled extends NewOrderImpl implements ScheduledOrde
      */
     @Override
     public Order copy() {
-        Map<Report, Integer> products = super.getReports();
-
-        Order copy = new NewOrderImplScheduled(getOrderID(), getClient(), getOrderDate(), getNumberOfQuarters());
-        for (Report report : products.keySet()) {
-            copy.setReport(report, products.get(report));
+        // shares the reports with this order until either one changes, rather than adding them one at a time
+        NewOrderImplScheduled copy = new NewOrderImplScheduled(getOrderID(), getClient(), getOrderDate(), getNumberOfQuarters(), shareReports());
+        if (isFinalised()) {
+            copy.finalise();
         }
 
+        copy.restoreVersion(getVersion());
         return copy;
     }
 
@@ -16,16 +16,22 @@ import java.util.*;
  * It would be really good if the new design could easily extend to support those as well.
  */
 @SuppressWarnings("Duplicates")
-public class Order66 implements Order {
-    private Map<Report, Integer> reports = new HashMap<>();
+public class Order66 implements Order, ChangeTracked {
+    private ReportIndex reports;
     private final int id;
     private LocalDateTime date;
     private int maxCountedEmployees;
     private int client;
     private boolean finalised = false;
+    private long version = 0; // see ChangeTracked
 
         public Order66(int id, int client, LocalDateTime date, int maxCountedEmployees) {
+        this(id, client, date, maxCountedEmployees, new ReportIndex(maxCountedEmployees));
+    }
+
+    Order66(int id, int client, LocalDateTime date, int maxCountedEmployees, ReportIndex reports) {
         this.id = id;
+        this.reports = reports;
         this.client = client;
         this.date = date;
         this.maxCountedEmployees = maxCountedEmployees;
@@ -50,16 +56,11 @@ public class Order66 implements Order {
         if (finalised) throw new IllegalStateException("Order was already finalised.");
 
         // We can't rely on equal reports having the same object identity since they get
-        // rebuilt over the network, so we have to check for presence and same values
+        // rebuilt over the network, the index finds the equal report by its fingerprint
 
-        for (Report contained: reports.keySet()) {
-            if (report.equals(contained)) {
-                report = contained;
-                break;
-            }
+        if (reports.put(report, employeeCount)) {
+            version++;
         }
-
-        reports.put(report, employeeCount);
     }
     /**
      *
@@ -79,22 +80,8 @@ public class Order66 implements Order {
     @Override
     public int getReportEmployeeCount(Report report) {
         // We can't rely on equal reports having the same object identity since they get
-        // rebuilt over the network, so we have to check for presence and same values
-
-        for (Report contained: reports.keySet()) {
-            if (contained.getCommission() == report.getCommission() &&
-                    contained.getReportName().equals(report.getReportName()) &&
-                    Arrays.equals(contained.getLegalData(), report.getLegalData()) &&
-                    Arrays.equals(contained.getCashFlowData(), report.getCashFlowData()) &&
-                    Arrays.equals(contained.getMergesData(), report.getMergesData()) &&
-                    Arrays.equals(contained.getTallyingData(), report.getTallyingData()) &&
-                    Arrays.equals(contained.getDeductionsData(), report.getDeductionsData())) {
-                report = contained;
-                break;
-            }
-        }
-        Integer result = reports.get(report);
-        return null == result ? 0 : result;
+        // rebuilt over the network, the index finds the equal report by its fingerprint
+        return reports.getCount(report);
     }
 
 
@@ -112,6 +99,9 @@ public class Order66 implements Order {
      */
     @Override
     public void finalise() {
+        if (!finalised) {
+            version++;
+        }
         this.finalised = true;
     }
 
@@ -122,15 +112,14 @@ public class Order66 implements Order {
      */
     @Override
     public Order copy() {
-        Order copy = new NewOrderImpl(id, client, date);
-        for (Report report : reports.keySet()) {
-            copy.setReport(report, reports.get(report));
-        }
+        // NewOrderImpl charges every employee, so the shared index needs its subtotal without the cap
+        NewOrderImpl copy = new NewOrderImpl(id, client, date, reports.share(Integer.MAX_VALUE));
         if(finalised)
         {
             copy.finalise();
         }
 
+        copy.restoreVersion(version);
         return copy;
     }
     /**
@@ -218,15 +207,12 @@ public class Order66 implements Order {
      */
     @Override
     public double getTotalCommission() {
-        double cost = 0.0;
-        for (Report report : reports.keySet()) {
-            cost += report.getCommission() * Math.min(maxCountedEmployees, reports.get(report));
-        }
+        double cost = reports.getSubtotal(); // kept up to date by setReport
         return cost;
     }
 
     protected Map<Report, Integer> getReports() {
-        return reports;
+        return reports.asMap();
     }
 
     /**
@@ -241,7 +227,8 @@ public class Order66 implements Order {
      *
      * @return  true or false if report is finalized
      */
-    protected boolean isFinalised() {
+    @Override
+    public boolean isFinalised() {
         return finalised;
     }
     /**
@@ -251,16 +238,29 @@ public class Order66 implements Order {
     protected int getMaxCountedEmployees() {
         return maxCountedEmployees;
     }
-}
-
-
-
-
-
-
-
-
-
 
+    /**
+     * Used by the scheduled subclass to copy itself without rebuilding the reports
+     * @return an index sharing this order's reports until either side changes
+     */
+    ReportIndex shareReports() {
+        return reports.share();
+    }
 
+    /**
+     *
+     * @return number of changes made to this order, carried over to its copies
+     */
+    @Override
+    public long getVersion() {
+        return version;
+    }
 
+    /**
+     * Used by copy() so a copy starts at the version of the order it came from
+     * @param version version of the original order
+     */
+    void restoreVersion(long version) {
+        this.version = version;
+    }
+}
@@ -23,6 +23,11 @@ public class Order66Scheduled extends Order66 implements ScheduledOrder {
         this.numQuarters = numQuarters;
     }
 
+    Order66Scheduled(int id, int clientID, LocalDateTime date, int maxCountedEmployees, int numQuarters, ReportIndex reports) {
+        super(id, clientID, date, maxCountedEmployees, reports);
+        this.numQuarters = numQuarters;
+    }
+
 
     /**
      *
@@ -89,13 +94,13 @@ public class Order66Scheduled extends Order66 implements ScheduledOrder {
      */
     @Override
     public Order copy() {
-        Map<Report, Integer> products = super.getReports();
-
-        Order copy = new Order66Scheduled(getOrderID(), getClient(), getOrderDate(), getMaxCountedEmployees(), numQuarters);
-        for (Report report : products.keySet()) {
-            copy.setReport(report, products.get(report));
+        // shares the reports with this order until either one changes, rather than adding them one at a time
+        Order66Scheduled copy = new Order66Scheduled(getOrderID(), getClient(), getOrderDate(), getMaxCountedEmployees(), numQuarters, shareReports());
+        if (isFinalised()) {
+            copy.finalise();
         }
 
+        copy.restoreVersion(getVersion());
         return copy;
     }
     /**
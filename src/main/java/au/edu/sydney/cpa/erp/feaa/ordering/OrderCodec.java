@@ -0,0 +1,211 @@
+package au.edu.sydney.cpa.erp.feaa.ordering;
+
+import au.edu.sydney.cpa.erp.feaa.reports.ReportFingerprint;
+import au.edu.sydney.cpa.erp.ordering.Order;
+import au.edu.sydney.cpa.erp.ordering.Report;
+import au.edu.sydney.cpa.erp.ordering.ScheduledOrder;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.function.LongFunction;
+
+/**
+ * Writes FEAA orders out as plain bytes and reads them back, for the UoW journal.
+ *
+ * Reports are far too big to write out every time an order changes, so only their fingerprint
+ * (see ReportFingerprint) is written with the employee count. Reading an order back needs something that can find
+ * the report again from its fingerprint, normally the list of all reports. Fingerprints only stay the same from
+ * one run to the next when the report data does, which is why the journal needs the mapped report store.
+ *
+ * Layout: type, id, client, date (epoch second + nano), critical loading, max counted employees, quarters,
+ * finalised, version, report count, then per report - fingerprint, name, employee count.
+ */
+public final class OrderCodec {
+    private static final byte NEW_ORDER = 1;
+    private static final byte NEW_ORDER_SCHEDULED = 2;
+    private static final byte ORDER_66 = 3;
+    private static final byte ORDER_66_SCHEDULED = 4;
+    private static final byte FIRST_ORDER = 5;
+    private static final byte FIRST_ORDER_SCHEDULED = 6;
+    private static final byte CRITICAL_AUDIT = 7;
+    private static final byte CRITICAL_AUDIT_SCHEDULED = 8;
+
+    private OrderCodec() {
+    }
+
+    /**
+     *
+     * @param order any order
+     * @return true if the order is one of ours, so can be written out
+     */
+    public static boolean canEncode(Order order) {
+        return typeOf(order) != 0;
+    }
+
+    /**
+     *
+     * @param order order to write, see canEncode
+     * @param out where to write it
+     * @throws IOException if out can't be written to
+     */
+    public static void encode(Order order, DataOutput out) throws IOException {
+        byte type = typeOf(order);
+        if (type == 0) {
+            throw new IllegalArgumentException("Can't encode " + order.getClass().getName());
+        }
+
+        double criticalLoading = 0.0;
+        int maxCountedEmployees = 0;
+        Map<Report, Integer> reports;
+
+        if (order instanceof FirstOrderType) {
+            criticalLoading = ((FirstOrderType) order).getCriticalLoading();
+            maxCountedEmployees = ((FirstOrderType) order).getMaxCountedEmployees();
+            reports = ((FirstOrderType) order).getReports();
+        } else if (order instanceof CriticalAuditOrder) {
+            criticalLoading = ((CriticalAuditOrder) order).getCriticalLoading();
+            reports = ((CriticalAuditOrder) order).getReports();
+        } else if (order instanceof Order66) {
+            maxCountedEmployees = ((Order66) order).getMaxCountedEmployees();
+            reports = ((Order66) order).getReports();
+        } else {
+            reports = ((NewOrderImpl) order).getReports();
+        }
+
+        LocalDateTime date = order.getOrderDate();
+
+        out.writeByte(type);
+        out.writeInt(order.getOrderID());
+        out.writeInt(order.getClient());
+        out.writeBoolean(date != null);
+        if (date != null) {
+            out.writeLong(date.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(date.getNano());
+        }
+        out.writeDouble(criticalLoading);
+        out.writeInt(maxCountedEmployees);
+        out.writeInt(order instanceof ScheduledOrder ? ((ScheduledOrder) order).getNumberOfQuarters() : 0);
+        boolean tracked = order instanceof ChangeTracked;
+        out.writeBoolean(tracked && ((ChangeTracked) order).isFinalised());
+        out.writeLong(tracked ? ((ChangeTracked) order).getVersion() : 0);
+
+        out.writeInt(reports.size());
+        for (Map.Entry<Report, Integer> entry : reports.entrySet()) {
+            out.writeLong(ReportFingerprint.of(entry.getKey()));
+            out.writeUTF(entry.getKey().getReportName());
+            out.writeInt(entry.getValue());
+        }
+    }
+
+    /**
+     * Reads back an order written by encode. Reports that can't be found any more are left off, with a warning.
+     * @param in where to read from
+     * @param reports finds a report from its fingerprint, null if there is no such report
+     * @return the order, at the version it was written at
+     * @throws IOException if in can't be read or doesn't hold an order
+     */
+    public static Order decode(DataInput in, LongFunction<Report> reports) throws IOException {
+        byte type = in.readByte();
+        int id = in.readInt();
+        int client = in.readInt();
+        LocalDateTime date = null;
+        if (in.readBoolean()) {
+            long epochSecond = in.readLong();
+            int nano = in.readInt();
+            date = LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC);
+        }
+        double criticalLoading = in.readDouble();
+        int maxCountedEmployees = in.readInt();
+        int numQuarters = in.readInt();
+        boolean finalised = in.readBoolean();
+        long version = in.readLong();
+
+        Order order;
+        switch (type) {
+            case NEW_ORDER:
+                order = new NewOrderImpl(id, client, date);
+                break;
+            case NEW_ORDER_SCHEDULED:
+                order = new NewOrderImplScheduled(id, client, date, numQuarters);
+                break;
+            case ORDER_66:
+                order = new Order66(id, client, date, maxCountedEmployees);
+                break;
+            case ORDER_66_SCHEDULED:
+                order = new Order66Scheduled(id, client, date, maxCountedEmployees, numQuarters);
+                break;
+            case FIRST_ORDER:
+                order = new FirstOrderType(id, client, date, criticalLoading, maxCountedEmployees);
+                break;
+            case FIRST_ORDER_SCHEDULED:
+                order = new FirstOrderTypeScheduled(id, client, date, criticalLoading, maxCountedEmployees, numQuarters);
+                break;
+            case CRITICAL_AUDIT:
+                order = new CriticalAuditOrder(id, client, date, criticalLoading);
+                break;
+            case CRITICAL_AUDIT_SCHEDULED:
+                order = new CriticalAuditOrderScheduled(id, client, date, criticalLoading, numQuarters);
+                break;
+            default:
+                throw new IOException("Unknown order type " + type);
+        }
+
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            long fingerprint = in.readLong();
+            String name = in.readUTF();
+            int employeeCount = in.readInt();
+
+            Report report = reports.apply(fingerprint);
+            if (report == null) {
+                System.err.println("Report " + name + " on order " + id + " no longer exists, leaving it off");
+                continue;
+            }
+            order.setReport(report, employeeCount);
+        }
+
+        if (finalised) {
+            order.finalise();
+        }
+        restoreVersion(order, version);
+        return order;
+    }
+
+    private static void restoreVersion(Order order, long version) {
+        if (order instanceof NewOrderImpl) {
+            ((NewOrderImpl) order).restoreVersion(version);
+        } else if (order instanceof Order66) {
+            ((Order66) order).restoreVersion(version);
+        } else if (order instanceof FirstOrderType) {
+            ((FirstOrderType) order).restoreVersion(version);
+        } else if (order instanceof CriticalAuditOrder) {
+            ((CriticalAuditOrder) order).restoreVersion(version);
+        }
+    }
+
+    // Subclasses first, since each scheduled order is also an instance of its base type
+    private static byte typeOf(Order order) {
+        if (order instanceof NewOrderImplScheduled) {
+            return NEW_ORDER_SCHEDULED;
+        } else if (order instanceof NewOrderImpl) {
+            return NEW_ORDER;
+        } else if (order instanceof Order66Scheduled) {
+            return ORDER_66_SCHEDULED;
+        } else if (order instanceof Order66) {
+            return ORDER_66;
+        } else if (order instanceof FirstOrderTypeScheduled) {
+            return FIRST_ORDER_SCHEDULED;
+        } else if (order instanceof FirstOrderType) {
+            return FIRST_ORDER;
+        } else if (order instanceof CriticalAuditOrderScheduled) {
+            return CRITICAL_AUDIT_SCHEDULED;
+        } else if (order instanceof CriticalAuditOrder) {
+            return CRITICAL_AUDIT;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,206 @@
+package au.edu.sydney.cpa.erp.feaa.ordering;
+
+import au.edu.sydney.cpa.erp.feaa.reports.ReportFingerprint;
+import au.edu.sydney.cpa.erp.feaa.reports.ReportImpl;
+import au.edu.sydney.cpa.erp.ordering.Report;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The reports on an order and the employee count for each one.
+ *
+ * Equal reports get rebuilt over the network, so the report passed in is usually a different object to the one
+ * already on the order. Instead of comparing it against every report on the order, reports are looked up by their
+ * fingerprint (see ReportFingerprint) and only compared in full with the ones whose fingerprint matches.
+ * The full comparison goes through the Report interface (ReportImpl.sameContent), so any kind of report,
+ * including a MappedReport, matches an equal report of another kind.
+ * Once found, the report already on the order is used as the key, so the counts themselves are kept by identity.
+ *
+ * The index also keeps a running subtotal (commission * counted employees, summed over every report) that is
+ * updated on every put, so order totals don't have to walk every report each time they are shown.
+ * Run with -Dfeaa.orders.verifyTotals=true to check the running subtotal against a full recompute on every read.
+ *
+ * Copying an order happens on every save and every read from the database, so indexes are copy on write:
+ * share() hands back an index over the same maps straight away, and whichever side is changed first takes its
+ * own copy of the maps at that point. Orders that are copied and never changed (nearly all of them) never pay
+ * for a copy at all.
+ */
+class ReportIndex {
+    private static final boolean VERIFY_TOTALS = Boolean.getBoolean("feaa.orders.verifyTotals");
+
+    private Map<Report, Integer> counts;
+    private Map<Long, List<Report>> byFingerprint;
+    private final int maxCountedEmployees;
+    private double subtotal = 0.0;
+    private volatile boolean shared = false; // true while the maps may also belong to another index
+
+    /**
+     * Index for orders that charge for every employee
+     */
+    ReportIndex() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     *
+     * @param maxCountedEmployees employees above this count are not charged for
+     */
+    ReportIndex(int maxCountedEmployees) {
+        this.counts = new IdentityHashMap<>();
+        this.byFingerprint = new HashMap<>();
+        this.maxCountedEmployees = maxCountedEmployees;
+    }
+
+    private ReportIndex(ReportIndex source, int maxCountedEmployees) {
+        this.counts = source.counts;
+        this.byFingerprint = source.byFingerprint;
+        this.maxCountedEmployees = maxCountedEmployees;
+        this.subtotal = source.subtotal;
+        this.shared = true;
+    }
+
+    /**
+     * O(1) copy for Order.copy(), the maps are only copied once either index is changed
+     * @return an index holding the same reports and counts as this one
+     */
+    ReportIndex share() {
+        shared = true;
+        return new ReportIndex(this, maxCountedEmployees);
+    }
+
+    /**
+     * Copy for an order with a different employee cap. The maps are still shared, only the subtotal is
+     * worked out again since the cap changes what each report is charged.
+     * @param maxCountedEmployees employees above this count are not charged for
+     * @return an index holding the same reports and counts as this one
+     */
+    ReportIndex share(int maxCountedEmployees) {
+        if (maxCountedEmployees == this.maxCountedEmployees) {
+            return share();
+        }
+
+        shared = true;
+        ReportIndex copy = new ReportIndex(this, maxCountedEmployees);
+        copy.subtotal = copy.recompute();
+        return copy;
+    }
+
+    /**
+     * Takes a private copy of the maps before the first change after a share()
+     */
+    private void unshare() {
+        if (!shared) {
+            return;
+        }
+
+        counts = new IdentityHashMap<>(counts);
+        Map<Long, List<Report>> ownFingerprints = new HashMap<>(byFingerprint.size() * 4 / 3 + 1);
+        for (Map.Entry<Long, List<Report>> entry : byFingerprint.entrySet()) {
+            ownFingerprints.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        byFingerprint = ownFingerprints;
+        shared = false;
+    }
+
+    /**
+     *
+     * @param report any report
+     * @return the equal report already on the order, or null if there isn't one
+     */
+    Report find(Report report) {
+        List<Report> candidates = byFingerprint.get(ReportFingerprint.of(report));
+        if (null == candidates) {
+            return null;
+        }
+
+        for (Report contained : candidates) {
+            if (contained == report || ReportImpl.sameContent(report, contained)) {
+                return contained;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the employee count of a report, reusing the equal report if it is already on the order
+     * @param report any report
+     * @param employeeCount
+     * @return false if the report already had this employee count, so nothing changed
+     */
+    boolean put(Report report, int employeeCount) {
+        unshare();
+        Report contained = find(report);
+
+        if (null == contained) {
+            contained = report;
+            byFingerprint.computeIfAbsent(ReportFingerprint.of(report), key -> new ArrayList<>(1)).add(report);
+        }
+        Integer previous = counts.put(contained, employeeCount);
+
+        if (null != previous) {
+            subtotal -= charge(contained, previous);
+        }
+        subtotal += charge(contained, employeeCount);
+        return null == previous || previous != employeeCount;
+    }
+
+    /**
+     *
+     * @return sum of commission * counted employees over every report, before any loading
+     */
+    double getSubtotal() {
+        if (VERIFY_TOTALS) {
+            double recomputed = recompute();
+            if (Math.abs(recomputed - subtotal) > 1e-6 * Math.max(1.0, Math.abs(recomputed))) {
+                throw new IllegalStateException("Running subtotal " + subtotal + " does not match recomputed " + recomputed);
+            }
+        }
+        return subtotal;
+    }
+
+    private double recompute() {
+        double result = 0.0;
+        for (Map.Entry<Report, Integer> entry : counts.entrySet()) {
+            result += charge(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    private double charge(Report report, int employeeCount) {
+        return report.getCommission() * Math.min(maxCountedEmployees, employeeCount);
+    }
+
+    /**
+     *
+     * @param report any report
+     * @return the employee count of the equal report on the order, 0 if there isn't one
+     */
+    int getCount(Report report) {
+        Report contained = find(report);
+        Integer result = null == contained ? null : counts.get(contained);
+        return null == result ? 0 : result;
+    }
+
+    /**
+     *
+     * @param contained a report taken from keySet()
+     * @return its employee count
+     */
+    Integer get(Report contained) {
+        return counts.get(contained);
+    }
+
+    Set<Report> keySet() {
+        return Collections.unmodifiableSet(counts.keySet());
+    }
+
+    Map<Report, Integer> asMap() {
+        return Collections.unmodifiableMap(counts);
+    }
+}
@@ -0,0 +1,231 @@
+package au.edu.sydney.cpa.erp.feaa.reports;
+
+import au.edu.sydney.cpa.erp.ordering.Report;
+import com.google.common.primitives.ImmutableDoubleArray;
+
+import java.nio.DoubleBuffer;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * A report whose data lives off heap, in a file mapped by MappedReportStore.
+ *
+ * Only the name and commission are on the heap, the five series are read-only views straight over the mapped
+ * file, so the operating system pages them in and out as needed instead of them sitting in the Java heap.
+ * A MappedReport and a ReportImpl with the same content are equal and have the same hash code.
+ */
+public class MappedReport implements Report {
+
+    private final String name;
+    private final double commissionPerEmployee;
+    private final DoubleBuffer legalData;
+    private final DoubleBuffer cashFlowData;
+    private final DoubleBuffer mergesData;
+    private final DoubleBuffer tallyingData;
+    private final DoubleBuffer deductionsData;
+    private final long fingerprint; // stored in the file, so mapping it stays cheap
+
+    MappedReport(String name, double commissionPerEmployee, long fingerprint, DoubleBuffer legalData,
+                 DoubleBuffer cashFlowData, DoubleBuffer mergesData, DoubleBuffer tallyingData,
+                 DoubleBuffer deductionsData) {
+        this.name = name;
+        this.commissionPerEmployee = commissionPerEmployee;
+        this.fingerprint = fingerprint;
+        this.legalData = legalData;
+        this.cashFlowData = cashFlowData;
+        this.mergesData = mergesData;
+        this.tallyingData = tallyingData;
+        this.deductionsData = deductionsData;
+    }
+
+    @Override
+    public String getReportName() {
+        return name;
+    }
+
+    @Override
+    public double getCommission() {
+        return commissionPerEmployee;
+    }
+
+    /*
+    * The array getters have to copy the data onto the heap to satisfy the Report interface, code inside feaa
+    * should read through the buffer views below instead. */
+
+    @Override
+    public double[] getLegalData() {
+        return toArray(legalData);
+    }
+
+    @Override
+    public double[] getCashFlowData() {
+        return toArray(cashFlowData);
+    }
+
+    @Override
+    public double[] getMergesData() {
+        return toArray(mergesData);
+    }
+
+    @Override
+    public double[] getTallyingData() {
+        return toArray(tallyingData);
+    }
+
+    @Override
+    public double[] getDeductionsData() {
+        return toArray(deductionsData);
+    }
+
+    /**
+     *
+     * @return read-only view over the mapped legal data, null if the report has none
+     */
+    public DoubleBuffer getLegalDataBuffer() {
+        return view(legalData);
+    }
+
+    /**
+     *
+     * @return read-only view over the mapped cash flow data, null if the report has none
+     */
+    public DoubleBuffer getCashFlowDataBuffer() {
+        return view(cashFlowData);
+    }
+
+    /**
+     *
+     * @return read-only view over the mapped merges data, null if the report has none
+     */
+    public DoubleBuffer getMergesDataBuffer() {
+        return view(mergesData);
+    }
+
+    /**
+     *
+     * @return read-only view over the mapped tallying data, null if the report has none
+     */
+    public DoubleBuffer getTallyingDataBuffer() {
+        return view(tallyingData);
+    }
+
+    /**
+     *
+     * @return read-only view over the mapped deductions data, null if the report has none
+     */
+    public DoubleBuffer getDeductionsDataBuffer() {
+        return view(deductionsData);
+    }
+
+    /**
+     *
+     * @return content fingerprint of this report, see ReportFingerprint
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s", name);
+    }
+
+    /**
+     * Same rule as ReportImpl, two reports are equal if their name, commission and all of their data are equal.
+     * A ReportImpl holding the same content is equal to this report too.
+     * @param obj
+     * @return true if equal, false if not
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof MappedReport || obj instanceof ReportImpl)) {
+            return false;
+        }
+        Report other = (Report) obj;
+        return fingerprint == ReportFingerprint.of(other) && ReportImpl.sameContent(this, other);
+    }
+
+    @Override
+    public int hashCode() {
+        // Same as ReportImpl, so equal reports hash the same whichever kind they are
+        return Long.hashCode(fingerprint);
+    }
+
+    /**
+     * Compares the data of a mapped report with any other report, reading the mapped series in place. ReportImpl
+     * data is read through its views, so nothing gets copied unless other is some other kind of Report.
+     * @param mapped
+     * @param other
+     * @return true if all five series hold the same values
+     */
+    static boolean sameData(MappedReport mapped, Report other) {
+        for (int series = 0; series < MappedReportStore.SERIES; series++) {
+            if (!sameSeries(mapped.column(series), other, series)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameSeries(DoubleBuffer data, Report other, int series) {
+        int length;
+        IntToDoubleFunction values;
+        if (other instanceof MappedReport) {
+            DoubleBuffer otherData = ((MappedReport) other).column(series);
+            length = null == otherData ? -1 : otherData.capacity();
+            values = null == otherData ? null : otherData::get;
+        } else if (other instanceof ReportImpl) {
+            ImmutableDoubleArray otherData = MappedReportStore.view((ReportImpl) other, series);
+            length = null == otherData ? -1 : otherData.length();
+            values = null == otherData ? null : otherData::get;
+        } else {
+            double[] otherData = MappedReportStore.array(other, series);
+            length = null == otherData ? -1 : otherData.length;
+            values = null == otherData ? null : i -> otherData[i];
+        }
+
+        if (null == data || null == values) {
+            return null == data && null == values;
+        }
+        if (data.capacity() != length) {
+            return false;
+        }
+        // Compared bit for bit, the same as Arrays.equals and ImmutableDoubleArray.equals
+        for (int i = 0; i < length; i++) {
+            if (Double.doubleToLongBits(data.get(i)) != Double.doubleToLongBits(values.applyAsDouble(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private DoubleBuffer column(int series) {
+        switch (series) {
+            case 0:
+                return legalData;
+            case 1:
+                return cashFlowData;
+            case 2:
+                return mergesData;
+            case 3:
+                return tallyingData;
+            default:
+                return deductionsData;
+        }
+    }
+
+    private static DoubleBuffer view(DoubleBuffer data) {
+        return null == data ? null : data.duplicate();
+    }
+
+    private static double[] toArray(DoubleBuffer data) {
+        if (null == data) {
+            return null;
+        }
+        double[] copy = new double[data.capacity()];
+        data.duplicate().get(copy);
+        return copy;
+    }
+}
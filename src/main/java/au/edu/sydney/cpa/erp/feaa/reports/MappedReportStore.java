@@ -0,0 +1,301 @@
+package au.edu.sydney.cpa.erp.feaa.reports;
+
+import au.edu.sydney.cpa.erp.ordering.Report;
+import com.google.common.primitives.ImmutableDoubleArray;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Keeps report data in a memory mapped file instead of on the heap.
+ *
+ * Reports are spilled to the file once, after that every start up just maps the file again (see load), which
+ * is one system call per series rather than regenerating and holding 400MB of doubles.
+ *
+ * File layout, everything big endian:
+ *   header:  magic, version, report count, offset of the data
+ *   index:   per report - name length, name (UTF-8), commission, fingerprint, then for each of the 5 series
+ *            its length (-1 if null) and the offset of its data
+ *   data:    column-wise, the legal series of every report, then the cash flow series of every report, then
+ *            merges, tallying and deductions
+ *
+ * Keeping each kind of series together means a scan over, say, the legal data of every report reads the file
+ * front to back. The fingerprint is stored so a mapped report can be hashed and compared without paging its
+ * data in.
+ */
+public class MappedReportStore {
+
+    private static final int MAGIC = 0x46525054; // "FRPT"
+    private static final int VERSION = 2; // 1 stored the series report by report
+    static final int SERIES = 5;
+    private static final int CHUNK = 8192; // doubles written per write call
+    private static final int HEADER_SIZE = 3 * Integer.BYTES + Long.BYTES;
+
+    private final Path file;
+    private List<Report> reports;
+
+    /**
+     *
+     * @param file file the reports are spilled to and mapped from
+     */
+    public MappedReportStore(Path file) {
+        this.file = file;
+    }
+
+    /**
+     *
+     * @return true if reports have already been spilled to the file
+     */
+    public boolean exists() {
+        return Files.isRegularFile(file);
+    }
+
+    /**
+     * Returns the mapped reports, mapping the file the first time. If nothing has been spilled yet, or the file
+     * was written in an older layout, the reports from source are spilled first.
+     * @param source where to get the reports from if the file does not exist yet
+     * @return the mapped reports
+     */
+    public synchronized List<Report> getReports(Supplier<Collection<Report>> source) {
+        if (reports == null) {
+            try {
+                reports = exists() && !olderVersion() ? load() : write(source.get());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not map report file " + file, e);
+            }
+        }
+        return reports;
+    }
+
+    /**
+     * Spills the given reports to the file, replacing whatever was there, and maps the result.
+     * ReportImpl data is written straight from its shared arrays, nothing is copied onto the heap.
+     * @param source reports to spill
+     * @return the spilled reports, now backed by the file
+     * @throws IOException if the file can't be written
+     */
+    public List<Report> write(Collection<Report> source) throws IOException {
+        List<Report> toWrite = new ArrayList<>(source);
+        List<byte[]> names = new ArrayList<>();
+        List<int[]> lengths = new ArrayList<>();
+
+        long indexSize = 0;
+        for (Report report : toWrite) {
+            byte[] name = report.getReportName().getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            lengths.add(seriesLengths(report));
+            indexSize += Integer.BYTES + name.length + Double.BYTES + Long.BYTES + SERIES * (Integer.BYTES + Long.BYTES);
+        }
+
+        long dataStart = align(HEADER_SIZE + indexSize);
+
+        // Column-wise, so every report's first series comes before any report's second series
+        long[][] offsets = new long[toWrite.size()][SERIES];
+        long offset = dataStart;
+        for (int series = 0; series < SERIES; series++) {
+            for (int i = 0; i < toWrite.size(); i++) {
+                offsets[i][series] = offset;
+                offset += Math.max(0, lengths.get(i)[series]) * (long) Double.BYTES;
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate((int) dataStart);
+        header.putInt(MAGIC).putInt(VERSION).putInt(toWrite.size()).putLong(dataStart);
+
+        for (int i = 0; i < toWrite.size(); i++) {
+            Report report = toWrite.get(i);
+            header.putInt(names.get(i).length).put(names.get(i)).putDouble(report.getCommission())
+                    .putLong(ReportFingerprint.of(report));
+            for (int series = 0; series < SERIES; series++) {
+                header.putInt(lengths.get(i)[series]).putLong(offsets[i][series]);
+            }
+        }
+        header.clear();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header);
+
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK * Double.BYTES);
+            for (int series = 0; series < SERIES; series++) {
+                for (Report report : toWrite) {
+                    writeSeries(channel, chunk, report, series);
+                }
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return load();
+    }
+
+    /**
+     * Maps previously spilled reports. Only the index is read, the data stays in the file until it is used.
+     * @return the mapped reports
+     * @throws IOException if the file can't be read or isn't a report file
+     */
+    public List<Report> load() throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer fixed = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, fixed, 0);
+            fixed.flip();
+
+            if (fixed.remaining() < HEADER_SIZE || fixed.getInt() != MAGIC || fixed.getInt() != VERSION) {
+                throw new IOException(file + " is not a report file");
+            }
+            int count = fixed.getInt();
+            long dataStart = fixed.getLong();
+            if (count < 0 || dataStart < HEADER_SIZE || dataStart > Math.min(channel.size(), Integer.MAX_VALUE)) {
+                throw new IOException(file + " has a damaged header");
+            }
+
+            // Only the index is mapped here, each series gets its own mapping below
+            MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, dataStart - HEADER_SIZE);
+            List<Report> result = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[index.getInt()];
+                index.get(name);
+                double commission = index.getDouble();
+                long fingerprint = index.getLong();
+
+                // The mappings stay valid after the channel is closed
+                DoubleBuffer[] columns = new DoubleBuffer[SERIES];
+                for (int series = 0; series < SERIES; series++) {
+                    int length = index.getInt();
+                    long offset = index.getLong();
+                    if (length >= 0) {
+                        columns[series] = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                                length * (long) Double.BYTES).asDoubleBuffer();
+                    }
+                }
+
+                result.add(new MappedReport(new String(name, StandardCharsets.UTF_8), commission, fingerprint,
+                        columns[0], columns[1], columns[2], columns[3], columns[4]));
+            }
+
+            return Collections.unmodifiableList(result);
+        }
+    }
+
+    // True if the file is a report file in a layout this version no longer reads
+    private boolean olderVersion() throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer start = ByteBuffer.allocate(2 * Integer.BYTES);
+            readFully(channel, start, 0);
+            start.flip();
+            return start.remaining() == start.capacity() && start.getInt() == MAGIC && start.getInt() < VERSION;
+        }
+    }
+
+    private static void writeSeries(FileChannel channel, ByteBuffer chunk, Report report, int series) throws IOException {
+        if (report instanceof ReportImpl) {
+            ImmutableDoubleArray data = view((ReportImpl) report, series);
+            if (data == null) {
+                return;
+            }
+            for (int i = 0; i < data.length(); i++) {
+                if (!chunk.hasRemaining()) {
+                    flushChunk(channel, chunk);
+                }
+                chunk.putDouble(data.get(i));
+            }
+        } else {
+            double[] data = array(report, series);
+            if (data == null) {
+                return;
+            }
+            for (double value : data) {
+                if (!chunk.hasRemaining()) {
+                    flushChunk(channel, chunk);
+                }
+                chunk.putDouble(value);
+            }
+        }
+        flushChunk(channel, chunk);
+    }
+
+    private static void flushChunk(FileChannel channel, ByteBuffer chunk) throws IOException {
+        chunk.flip();
+        writeFully(channel, chunk);
+        chunk.clear();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return;
+            }
+        }
+    }
+
+    private static int[] seriesLengths(Report report) {
+        int[] lengths = new int[SERIES];
+        for (int series = 0; series < SERIES; series++) {
+            if (report instanceof ReportImpl) {
+                ImmutableDoubleArray data = view((ReportImpl) report, series);
+                lengths[series] = data == null ? -1 : data.length();
+            } else {
+                double[] data = array(report, series);
+                lengths[series] = data == null ? -1 : data.length;
+            }
+        }
+        return lengths;
+    }
+
+    static ImmutableDoubleArray view(ReportImpl report, int series) {
+        switch (series) {
+            case 0:
+                return report.getLegalDataView();
+            case 1:
+                return report.getCashFlowDataView();
+            case 2:
+                return report.getMergesDataView();
+            case 3:
+                return report.getTallyingDataView();
+            default:
+                return report.getDeductionsDataView();
+        }
+    }
+
+    static double[] array(Report report, int series) {
+        switch (series) {
+            case 0:
+                return report.getLegalData();
+            case 1:
+                return report.getCashFlowData();
+            case 2:
+                return report.getMergesData();
+            case 3:
+                return report.getTallyingData();
+            default:
+                return report.getDeductionsData();
+        }
+    }
+
+    private static long align(long position) {
+        return (position + Double.BYTES - 1) / Double.BYTES * Double.BYTES;
+    }
+}
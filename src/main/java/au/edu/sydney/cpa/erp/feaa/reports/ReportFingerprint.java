@@ -0,0 +1,74 @@
+package au.edu.sydney.cpa.erp.feaa.reports;
+
+import au.edu.sydney.cpa.erp.ordering.Report;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A stable identity for a report, worked out from its content.
+ *
+ * Reports have no primary key (see the note in Report), and they get rebuilt over the network so object identity
+ * can't be used either. Two reports with the same name, commission and data always have the same fingerprint,
+ * so orders can find a matching report with one hash lookup and only do the full comparison when the
+ * fingerprints match.
+ *
+ * ReportImpl works its out once and keeps it, MappedReport reads its from the report file, any other Report is
+ * fingerprinted from its getters every time.
+ */
+public final class ReportFingerprint {
+
+    private ReportFingerprint() {
+    }
+
+    /**
+     *
+     * @param report
+     * @return the fingerprint of the report
+     */
+    public static long of(Report report) {
+        if (report instanceof ReportImpl) {
+            return ((ReportImpl) report).getFingerprint();
+        }
+        if (report instanceof MappedReport) {
+            return ((MappedReport) report).getFingerprint();
+        }
+
+        return combine(report.getReportName(), report.getCommission(),
+                digest(report.getLegalData()),
+                digest(report.getCashFlowData()),
+                digest(report.getMergesData()),
+                digest(report.getTallyingData()),
+                digest(report.getDeductionsData()));
+    }
+
+    static HashCode digest(double[] data) {
+        return null == data ? null : ReportRepository.digestOf(data);
+    }
+
+    /**
+     *
+     * @param name report name
+     * @param commission commission per employee
+     * @param series digests of the legal, cash flow, merges, tallying and deductions data, null where there is none
+     * @return the fingerprint
+     */
+    static long combine(String name, double commission, HashCode... series) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+
+        hasher.putBoolean(null != name);
+        if (null != name) {
+            hasher.putInt(name.length()).putString(name, StandardCharsets.UTF_8);
+        }
+        hasher.putLong(Double.doubleToLongBits(commission));
+        for (HashCode digest : series) {
+            hasher.putBoolean(null != digest);
+            if (null != digest) {
+                hasher.putBytes(digest.asBytes());
+            }
+        }
+        return hasher.hash().asLong();
+    }
+}
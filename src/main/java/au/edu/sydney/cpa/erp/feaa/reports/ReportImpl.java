@@ -1,10 +1,12 @@
 package au.edu.sydney.cpa.erp.feaa.reports;
 
 import au.edu.sydney.cpa.erp.ordering.Report;
+import com.google.common.hash.HashCode;
 import com.google.common.primitives.ImmutableDoubleArray;
 
 
 import java.util.Arrays;
+import java.util.Objects;
 import java.util.stream.DoubleStream;
 
 /**
@@ -56,6 +58,7 @@ public class ReportImpl implements Report  {
     private final ImmutableDoubleArray mergesData;
     private final ImmutableDoubleArray tallyingData;
     private final ImmutableDoubleArray deductionsData;
+    private final long fingerprint;
 
 
     public ReportImpl(String name,
@@ -77,17 +80,25 @@ public class ReportImpl implements Report  {
 
        /*Basically what is happening here is I am doing a null check, because ImmutableDoubleArray does not like null
        * arguments at all
-       * After this check is done, I put this in my hashmap, and if this data type, is already in my hashmap I just reuse, that
-       * this ultimately reduces my RAM
-       * This can be deferred to my flyweight class, but i was running a bit short on time with another assignments.
-       * Also not exactly sure if this falls in line with best practice java
+       * After this check is done, the repository hands back the shared copy of the data if it already has one,
+       * this ultimately reduces my RAM. The data is only copied when it is new.
        * */
 
-        if(legalData == null) {this.legalData = null; } else { this.legalData = ReportRepository.getArray(ReportRepository.getHash(ImmutableDoubleArray.copyOf(legalData))); }
-        if(cashFlowData == null) {this.cashFlowData = null; } else { this.cashFlowData = ReportRepository.getArray(ReportRepository.getHash(ImmutableDoubleArray.copyOf(cashFlowData))); }
-        if(mergesData == null) {this.mergesData = null; } else { this.mergesData = ReportRepository.getArray(ReportRepository.getHash(ImmutableDoubleArray.copyOf(mergesData))); }
-        if(tallyingData == null) {this.tallyingData = null; } else { this.tallyingData = ReportRepository.getArray(ReportRepository.getHash(ImmutableDoubleArray.copyOf(tallyingData))); }
-        if(deductionsData == null) {this.deductionsData = null; } else { this.deductionsData = ReportRepository.getArray(ReportRepository.getHash(ImmutableDoubleArray.copyOf(deductionsData))); }
+        HashCode legalDigest = ReportFingerprint.digest(legalData);
+        HashCode cashFlowDigest = ReportFingerprint.digest(cashFlowData);
+        HashCode mergesDigest = ReportFingerprint.digest(mergesData);
+        HashCode tallyingDigest = ReportFingerprint.digest(tallyingData);
+        HashCode deductionsDigest = ReportFingerprint.digest(deductionsData);
+
+        this.legalData = legalData == null ? null : ReportRepository.intern(legalData, legalDigest);
+        this.cashFlowData = cashFlowData == null ? null : ReportRepository.intern(cashFlowData, cashFlowDigest);
+        this.mergesData = mergesData == null ? null : ReportRepository.intern(mergesData, mergesDigest);
+        this.tallyingData = tallyingData == null ? null : ReportRepository.intern(tallyingData, tallyingDigest);
+        this.deductionsData = deductionsData == null ? null : ReportRepository.intern(deductionsData, deductionsDigest);
+
+        // The digests are needed for interning anyway, so working out the fingerprint here is nearly free
+        this.fingerprint = ReportFingerprint.combine(name, commissionPerEmployee,
+                legalDigest, cashFlowDigest, mergesDigest, tallyingDigest, deductionsDigest);
 
     }
 
@@ -118,14 +129,10 @@ public class ReportImpl implements Report  {
         @Override
     public double[] getLegalData() {
        /*Copies the Immutable Double Array and converts it into a array to validate the interface return types
+       * Code inside feaa that only needs to read the data should use the view getters below instead
        * */
 
-        double[] copy = new double[legalData.length()];
-        for(int i = 0; i<legalData.length();++i)
-        {
-            copy[i] = legalData.get(i);
-        }
-        return copy;
+        return legalData.toArray(); // one bulk arraycopy rather than an element at a time
 
     }
     /**
@@ -136,12 +143,7 @@ public class ReportImpl implements Report  {
     public double[] getCashFlowData() {
         /*Copies the Immutable Double Array and converts it into a array to validate the interface return types
          * */
-        double[] copy = new double[cashFlowData.length()];
-        for(int i = 0; i<cashFlowData.length();++i)
-        {
-            copy[i] = cashFlowData.get(i);
-        }
-        return copy;
+        return cashFlowData.toArray();
     }
     /**
      *
@@ -151,12 +153,8 @@ public class ReportImpl implements Report  {
     public double[] getMergesData() {
         /*Copies the Immutable Double Array and converts it into a array to validate the interface return types
          * */
-        double[] copy = new double[mergesData.length()];
-        for(int i = 0; i<mergesData.length();++i)
-        {
-            copy[i] = mergesData.get(i);
-        }
-        return copy;    }
+        return mergesData.toArray();
+    }
     /**
      *
      * @return Tallying Data array
@@ -165,12 +163,7 @@ public class ReportImpl implements Report  {
     public double[] getTallyingData() {
         /*Copies the Immutable Double Array and converts it into a array to validate the interface return types
          * */
-        double[] copy = new double[tallyingData.length()];
-        for(int i = 0; i<tallyingData.length();++i)
-        {
-            copy[i] = tallyingData.get(i);
-        }
-        return copy;
+        return tallyingData.toArray();
     }
 
     /**
@@ -181,13 +174,99 @@ public class ReportImpl implements Report  {
     public double[] getDeductionsData() {
         /*Copies the Immutable Double Array and converts it into a array to validate the interface return types
          * */
-        double[] copy = new double[deductionsData.length()];
-        for(int i = 0; i<deductionsData.length();++i)
-        {
-            copy[i] = deductionsData.get(i);
+        return deductionsData.toArray();
+    }
+
+    /**
+     *
+     * @return content fingerprint of this report, see ReportFingerprint
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /*
+    * Read only views over the report data. ImmutableDoubleArray can't be modified by anyone, so these hand out
+    * the shared array itself instead of a 4MB copy. Use these (or stream()/forEach() on them) inside feaa
+    * whenever the data only needs to be read, the double[] getters above are only kept for the Report interface.
+    * */
+
+    /**
+     *
+     * @return Legal data, without copying
+     */
+    public ImmutableDoubleArray getLegalDataView() {
+        return legalData;
+    }
+
+    /**
+     *
+     * @return CashFlow data, without copying
+     */
+    public ImmutableDoubleArray getCashFlowDataView() {
+        return cashFlowData;
+    }
+
+    /**
+     *
+     * @return Merges data, without copying
+     */
+    public ImmutableDoubleArray getMergesDataView() {
+        return mergesData;
+    }
+
+    /**
+     *
+     * @return Tallying data, without copying
+     */
+    public ImmutableDoubleArray getTallyingDataView() {
+        return tallyingData;
+    }
+
+    /**
+     *
+     * @return Deductions data, without copying
+     */
+    public ImmutableDoubleArray getDeductionsDataView() {
+        return deductionsData;
+    }
+
+    /**
+     * Compares name, commission and all of the data of two reports, the same way the orders used to do by hand.
+     * When both are ReportImpls the data views are compared directly, and a MappedReport is read in place, so
+     * nothing gets copied. Commissions are compared bit for bit, like the data and the fingerprint, so a NaN
+     * commission matches itself, and a null name matches another null name.
+     * @param first
+     * @param second
+     * @return true if both reports hold the same values
+     */
+    public static boolean sameContent(Report first, Report second) {
+        if (Double.compare(first.getCommission(), second.getCommission()) != 0 ||
+                !Objects.equals(first.getReportName(), second.getReportName())) {
+            return false;
+        }
+
+        if (first instanceof ReportImpl && second instanceof ReportImpl) {
+            ReportImpl a = (ReportImpl) first;
+            ReportImpl b = (ReportImpl) second;
+            return Objects.equals(a.legalData, b.legalData) &&
+                    Objects.equals(a.cashFlowData, b.cashFlowData) &&
+                    Objects.equals(a.mergesData, b.mergesData) &&
+                    Objects.equals(a.tallyingData, b.tallyingData) &&
+                    Objects.equals(a.deductionsData, b.deductionsData);
+        }
+        if (first instanceof MappedReport) {
+            return MappedReport.sameData((MappedReport) first, second);
+        }
+        if (second instanceof MappedReport) {
+            return MappedReport.sameData((MappedReport) second, first);
         }
-        return copy;
 
+        return Arrays.equals(first.getLegalData(), second.getLegalData()) &&
+                Arrays.equals(first.getCashFlowData(), second.getCashFlowData()) &&
+                Arrays.equals(first.getMergesData(), second.getMergesData()) &&
+                Arrays.equals(first.getTallyingData(), second.getTallyingData()) &&
+                Arrays.equals(first.getDeductionsData(), second.getDeductionsData());
     }
 
     /**
@@ -212,6 +291,9 @@ public class ReportImpl implements Report  {
 
     /**
      * Compares based on variable equality and returns true if equal false if not equal
+     * Reports with different fingerprints can't be equal, so most comparisons stop there. When the fingerprints
+     * match, the data itself is compared straight from both reports' shared arrays, nothing gets copied.
+     * A MappedReport holding the same content is equal to this report too.
      * @param obj
      * @return true if equal false, if not equal
      */
@@ -219,26 +301,15 @@ public class ReportImpl implements Report  {
     public boolean equals(Object obj)
     {
           if(this == obj){return true;}
+          if(!(obj instanceof ReportImpl || obj instanceof MappedReport)) { return false; }
           Report report = (Report) obj;
-          if(obj.getClass() != this.getClass()) { return false; }
-          return name.equals(report.getReportName()) && this.commissionPerEmployee == report.getCommission() &&
-                  this.legalData.equals(ImmutableDoubleArray.copyOf(report.getLegalData())) && this.mergesData.equals(ImmutableDoubleArray.copyOf(report.getMergesData())) &&
-                  this.deductionsData.equals(ImmutableDoubleArray.copyOf(report.getDeductionsData())) && this.tallyingData.equals(ImmutableDoubleArray.copyOf(report.getTallyingData()))
-                  && this.cashFlowData.equals(ImmutableDoubleArray.copyOf(report.getCashFlowData()));
+          return this.fingerprint == ReportFingerprint.of(report) && sameContent(this, report);
     }
 
-    // COME BACK TO ME, IF I HAVE TIME, MAYBE TRY CONVERTING THE DOUBLES TO IMMUTABLE OBJECTS AND THEN RETURN IN TRUE OR FALSE
-
-    /*
-    SO i had time, and i changed it from this.legalData.equals(report.getLegalData) to this.legalData.equals(ImmutableDoubArray.copyof(report.getLegalData), probably
-    the same thing, but i get less warnings
-
-     */
-
-
     /*
-    * Basically custom hash, hopefully this is unique enough to prevent collision, I am not sure
-    * if it would be better use the java one. So....... :/ */
+    * The hash used to be worked out from all five data arrays on every call, which made every HashMap lookup
+    * cost millions of operations. The fingerprint already covers everything equals looks at, and is worked out
+    * once in the constructor. */
 
 
     /**
@@ -248,13 +319,6 @@ public class ReportImpl implements Report  {
     @Override
     public int hashCode()
     {
-     return  this.name.hashCode() + 2323 +
-             this.deductionsData.hashCode() + 33 +
-             this.legalData.hashCode()+ 654
-             + this.tallyingData.hashCode() + 6443
-             + this.mergesData.hashCode()+ 643
-             + Double.valueOf(commissionPerEmployee).hashCode()+
-             this.cashFlowData.hashCode();
+     return Long.hashCode(fingerprint);
     }
-    //
 }
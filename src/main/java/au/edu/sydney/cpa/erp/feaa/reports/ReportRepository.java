@@ -1,77 +1,221 @@
 package au.edu.sydney.cpa.erp.feaa.reports;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.primitives.ImmutableDoubleArray;
-import gnu.trove.map.hash.THashMap;
 
-import java.util.HashMap;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
  * This is my flyweight class, the role of this class is keep references that will be reused, if needed.
+ *
+ * Arrays are stored by a 128 bit digest of their content. A digest match is always confirmed with a full
+ * comparison before an array is shared, so two different arrays can never end up aliased even if their
+ * digests collide. Stored arrays are only weakly referenced, once no report uses an array any more the
+ * garbage collector is free to reclaim it.
+ *
+ * Report data runs to megabytes, so the comparison and the copy are done outside the map, where they don't hold
+ * up other threads using the same bin. Buckets are never changed once they are in the map, a new bucket replaces
+ * the old one, and if another thread replaced it first the lookup is simply tried again.
  */
 public class ReportRepository {
 
-    /*I was going to make this a singleton class but decided against, it since, it will harder
-    * for the next guy whose replacing me, when it comes to testing*/
-   // private static ReportRepository reportRepository = null;
-    /*
-    * I also experimented with some custom "faster hashmaps" I used Trove collections library and a bit of apache to compare
-    * which hashmap gave me the best time.
-    * At the end of the day I found that out Apache and Trove, the java hashmap actually performed better*/
+    private static final HashFunction digest = Hashing.murmur3_128();
+    private static final int CHUNK = 8192; // doubles hashed per chunk, keeps the scratch buffer small
 
+    private static final ConcurrentMap<HashCode, List<StoredArray>> store = new ConcurrentHashMap<>(); // buckets are read only
+    private static final ReferenceQueue<ImmutableDoubleArray> reclaimed = new ReferenceQueue<>();
+    private static final ThreadLocal<ByteBuffer> scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(CHUNK * Double.BYTES));
 
-    private static HashMap<Integer,ImmutableDoubleArray> cache = new HashMap<>();
+    private static final AtomicLong requests = new AtomicLong();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong bytesSaved = new AtomicLong();
+    private static final AtomicLong collisions = new AtomicLong();
 
+    /*
+    * The old version of this class keyed the cache on hashCode() alone, so two different arrays with the same
+    * hash silently shared one copy, and nothing was ever removed from it. */
+
+    /**
+     * Returns the shared immutable copy of the given data, storing it first if it hasn't been seen before.
+     * The data is only copied if it is new, so interning something we already have costs one pass to digest
+     * it and one pass to confirm the match.
+     * @param data report data, not modified
+     * @return an immutable array with exactly the same values
+     */
+    public static ImmutableDoubleArray intern(double[] data) {
+        return intern(data, digestOf(data));
+    }
 
+    /**
+     * Same as intern(double[]), for callers that already needed the digest of the data for something else.
+     * @param data report data, not modified
+     * @param key digestOf(data)
+     * @return an immutable array with exactly the same values
+     */
+    static ImmutableDoubleArray intern(double[] data, HashCode key) {
+        removeReclaimed();
+        requests.incrementAndGet();
+
+        ImmutableDoubleArray copy = null;
+        while (true) {
+            List<StoredArray> bucket = store.get(key);
+            ImmutableDoubleArray found = find(bucket, data);
+            if (found != null) {
+                hits.incrementAndGet();
+                bytesSaved.addAndGet((long) data.length * Double.BYTES);
+                return found;
+            }
+
+            if (copy == null) {
+                copy = ImmutableDoubleArray.copyOf(data);
+            }
+            List<StoredArray> grown = new ArrayList<>(bucket == null ? 1 : bucket.size() + 1);
+            if (bucket != null) {
+                grown.addAll(bucket);
+            }
+            grown.add(new StoredArray(key, copy));
+
+            boolean published = bucket == null ? store.putIfAbsent(key, grown) == null : store.replace(key, bucket, grown);
+            if (published) {
+                if (bucket != null) {
+                    collisions.addAndGet(countLive(bucket)); // every live array in it was just found to differ
+                }
+                return copy;
+            }
+            // Another thread changed the bucket since we read it, look again in case it added this very data
+        }
+    }
 
-    /*
-    This retrieves my array from the hashmap.
-    * */
-
-   public static ImmutableDoubleArray getArray(int Hash)
-   {
-       return cache.get(Hash);
-   }
-
-
-/*This is my caching strategy, I compare using hashcode, if an item is not found in the hashcode, I store it
-* Next time, if the same item is passed, it is checked, and if found the hash is returned, this is then passed to the
-* get array method.*/
-    public static int getHash(ImmutableDoubleArray data)
-    {
-        if(cache.containsKey(data.hashCode()))
-        {
-            return data.hashCode();
-        }else{
-
-            cache.put(data.hashCode(),data);
-             return data.hashCode();
+    private static ImmutableDoubleArray find(List<StoredArray> bucket, double[] data) {
+        if (bucket == null) {
+            return null;
+        }
+        for (StoredArray stored : bucket) {
+            ImmutableDoubleArray candidate = stored.get();
+            if (candidate != null && sameValues(candidate, data)) {
+                return candidate;
+            }
         }
+        return null;
     }
 
+    private static int countLive(List<StoredArray> bucket) {
+        int live = 0;
+        for (StoredArray stored : bucket) {
+            if (stored.get() != null) {
+                live++;
+            }
+        }
+        return live;
+    }
 
-    /*
+    /**
+     *
+     * @return number of arrays passed to intern
+     */
+    public static long getRequestCount() {
+        return requests.get();
+    }
 
-     This was my previously hashing strategy, boy...this was very memory heavy, when combined with my Value Object,
-     I kept on running out of Heap Space, and realised, that keeping a list of double[] was counter inuitivie when
-     I can simply just do it in one go.
-
-
-     public static double[]  checkCache(int hash,double[] array)
-    {
-        List<double[]> test = quickMap.get(hash);
-        int Finder = 0;
-        if(test == null)
-        {
-            test = new ArrayList<>();
-            test.add(array);
-            quickMap.put(hash,test);
-            Finder = test.indexOf(array);
+    /**
+     *
+     * @return number of intern calls that reused an array already stored
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     *
+     * @return bytes of double data that did not need to be stored again thanks to sharing
+     */
+    public static long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    /**
+     *
+     * @return number of times two different arrays had the same digest
+     */
+    public static long getCollisionCount() {
+        return collisions.get();
+    }
+
+    /**
+     *
+     * @return number of distinct digests currently stored
+     */
+    public static int getStoredCount() {
+        removeReclaimed();
+        return store.size();
+    }
+
+    /**
+     * Content digest of some report data, as used to key the store.
+     * @param data report data
+     * @return 128 bit digest of the length and values
+     */
+    static HashCode digestOf(double[] data) {
+        ByteBuffer bytes = scratch.get();
+        bytes.clear();
+        DoubleBuffer doubles = bytes.asDoubleBuffer();
+        Hasher hasher = digest.newHasher();
+
+        hasher.putInt(data.length);
+        for (int offset = 0; offset < data.length; offset += CHUNK) {
+            int length = Math.min(CHUNK, data.length - offset);
+            doubles.clear();
+            doubles.put(data, offset, length);
+            bytes.clear();
+            bytes.limit(length * Double.BYTES);
+            hasher.putBytes(bytes);
         }
+        return hasher.hash();
+    }
 
+    private static boolean sameValues(ImmutableDoubleArray stored, double[] data) {
+        if (stored.length() != data.length) {
+            return false;
+        }
+        for (int i = 0; i < data.length; i++) {
+            // Same rule as Arrays.equals and ImmutableDoubleArray.equals
+            if (Double.doubleToLongBits(stored.get(i)) != Double.doubleToLongBits(data[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        return quickMap.get(hash).get(Finder);
+    private static void removeReclaimed() {
+        StoredArray dead;
+        while ((dead = (StoredArray) reclaimed.poll()) != null) {
+            StoredArray gone = dead;
+            store.computeIfPresent(gone.key, (k, bucket) -> {
+                List<StoredArray> rest = new ArrayList<>(bucket);
+                rest.remove(gone);
+                return rest.isEmpty() ? null : rest;
+            });
+        }
+    }
 
-    }*/
+    private static class StoredArray extends WeakReference<ImmutableDoubleArray> {
+        private final HashCode key;
 
+        private StoredArray(HashCode key, ImmutableDoubleArray array) {
+            super(array, reclaimed);
+            this.key = key;
+        }
+    }
 }
@@ -0,0 +1,14 @@
+package au.edu.sydney.cpa.erp.ordering;
+
+/**
+ * Orders that can say whether they have been finalised. Kept out of the Order interface itself, so existing
+ * Order implementations don't have to change. The summary table reads it when an order is saved.
+ */
+public interface Finalisable {
+
+    /**
+     *
+     * @return true if the order has been finalised
+     */
+    boolean isFinalised();
+}
@@ -1,17 +1,18 @@
 package au.edu.sydney.cpa.erp.view;
 
+import au.edu.sydney.cpa.erp.database.OrderSummary;
 import au.edu.sydney.cpa.erp.ordering.Client;
 import au.edu.sydney.cpa.erp.ordering.Report;
 import au.edu.sydney.cpa.erp.feaa.FEAAFacade;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 
 @SuppressWarnings("Duplicates")
 public class CLI {
     private static final FEAAFacade model = new FEAAFacade();
+    private static final int ORDER_PAGE_SIZE = 50;
 
     public static void main(String[] args) {
         authMenu();
@@ -233,12 +234,15 @@ public class CLI {
     }
 
     private static void listAllOrders() {
-        List<Integer> orders = model.getAllOrders();
-        orders.sort(Comparator.comparing(Integer::intValue));
-
         System.out.println("Current Orders:\n");
-        for (Integer orderID: orders) {
-            System.out.println(String.format("%s: $%,.2f", orderID, model.getOrderTotalCommission(orderID)));
+
+        // Summaries come back in id order, a page at a time, so whole orders are never loaded just to be listed
+        List<OrderSummary> page = model.getOrderSummaries(-1, ORDER_PAGE_SIZE);
+        while (!page.isEmpty()) {
+            for (OrderSummary summary: page) {
+                System.out.println(String.format("%s: $%,.2f", summary.getOrderID(), summary.getTotalCommission()));
+            }
+            page = model.getOrderSummaries(page.get(page.size() - 1).getOrderID(), ORDER_PAGE_SIZE);
         }
     }
 
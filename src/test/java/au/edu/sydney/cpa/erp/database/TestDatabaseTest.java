@@ -0,0 +1,260 @@
+package au.edu.sydney.cpa.erp.database;
+
+import au.edu.sydney.cpa.erp.auth.AuthModule;
+import au.edu.sydney.cpa.erp.auth.AuthToken;
+import au.edu.sydney.cpa.erp.feaa.ordering.NewOrderImpl;
+import au.edu.sydney.cpa.erp.feaa.reports.ReportImpl;
+import au.edu.sydney.cpa.erp.ordering.Order;
+import au.edu.sydney.cpa.erp.ordering.Report;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hammers the database from many threads at once with the simulated delays turned off.
+ */
+public class TestDatabaseTest {
+    private static final int THREADS = 16;
+    private static final int ROUNDS = 200;
+
+    private TestDatabase database;
+    private AuthToken token;
+    private Report report;
+    private ExecutorService pool;
+
+    @Before
+    public void setup() {
+        database = TestDatabase.getInstance();
+        database.setMillisPerSecond(0);
+        token = AuthModule.login("Terry Gilliam", "hunter2");
+        report = new ReportImpl("Stress Report", 10.0,
+                new double[]{1}, new double[]{2}, new double[]{3}, new double[]{4}, new double[]{5});
+        pool = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        pool.shutdownNow();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+        database.setMillisPerSecond(1000);
+        AuthModule.logout(token);
+    }
+
+    @Test
+    public void orderIDsAreUniqueAcrossThreads() throws Exception {
+        Set<Integer> seen = ConcurrentHashMap.newKeySet();
+
+        runAll(thread -> {
+            for (int i = 0; i < ROUNDS; i++) {
+                assertTrue("Order ID handed out twice", seen.add(database.getNextOrderID()));
+            }
+        });
+
+        assertEquals(THREADS * ROUNDS, seen.size());
+    }
+
+    @Test
+    public void reservedBlocksNeverOverlapOtherIDs() throws Exception {
+        Set<Integer> seen = ConcurrentHashMap.newKeySet();
+
+        // Half the threads reserve blocks, the other half take single IDs from the same sequence
+        runAll(thread -> {
+            for (int i = 0; i < ROUNDS; i++) {
+                if (thread % 2 == 0) {
+                    int first = database.reserveOrderIDs(5);
+                    for (int id = first; id < first + 5; id++) {
+                        assertTrue("Order ID handed out twice", seen.add(id));
+                    }
+                } else {
+                    assertTrue("Order ID handed out twice", seen.add(database.getNextOrderID()));
+                }
+            }
+        });
+
+        assertEquals(THREADS / 2 * ROUNDS * 6, seen.size());
+    }
+
+    @Test
+    public void noLostUpdatesForSeparateOrders() throws Exception {
+        int[] ids = new int[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            ids[i] = database.getNextOrderID();
+        }
+
+        runAll(thread -> {
+            Order order = new NewOrderImpl(ids[thread], 5000 + thread, LocalDateTime.now());
+            for (int i = 1; i <= ROUNDS; i++) {
+                order.setReport(report, i);
+                database.saveOrder(token, order);
+
+                Order saved = database.getOrder(token, ids[thread]);
+                assertEquals(i, saved.getReportEmployeeCount(report));
+            }
+        });
+
+        for (int thread = 0; thread < THREADS; thread++) {
+            assertEquals(ROUNDS, database.getOrder(token, ids[thread]).getReportEmployeeCount(report));
+
+            List<Order> forClient = database.getOrdersForClient(token, 5000 + thread);
+            assertEquals(1, forClient.size());
+            assertEquals(ids[thread], forClient.get(0).getOrderID());
+        }
+    }
+
+    @Test
+    public void concurrentSavesOfOneOrderLeaveItConsistent() throws Exception {
+        int id = database.getNextOrderID();
+
+        runAll(thread -> {
+            Order order = new NewOrderImpl(id, 6000, LocalDateTime.now());
+            for (int i = 0; i < ROUNDS; i++) {
+                order.setReport(report, thread * ROUNDS + i);
+                database.saveOrder(token, order);
+            }
+        });
+
+        // Whichever save landed last, its summary row has to describe the same order
+        Order saved = database.getOrder(token, id);
+        OrderSummary summary = findSummary(id);
+        assertNotNull(summary);
+        assertEquals(saved.getTotalCommission(), summary.getTotalCommission(), 0.0001);
+        assertEquals(1, database.getOrdersForClient(token, 6000).size());
+    }
+
+    @Test
+    public void saveAndRemoveKeepIndexesInStep() throws Exception {
+        int[][] ids = new int[THREADS][ROUNDS];
+        for (int thread = 0; thread < THREADS; thread++) {
+            for (int i = 0; i < ROUNDS; i++) {
+                ids[thread][i] = database.getNextOrderID();
+            }
+        }
+
+        runAll(thread -> {
+            for (int i = 0; i < ROUNDS; i++) {
+                Order order = new NewOrderImpl(ids[thread][i], 7000 + thread, LocalDateTime.now());
+                order.setReport(report, 1);
+                database.saveOrder(token, order);
+
+                // Every other order is taken straight back out again
+                if (i % 2 == 0) {
+                    assertTrue(database.removeOrder(token, ids[thread][i]));
+                    assertFalse(database.removeOrder(token, ids[thread][i]));
+                }
+
+                // Readers run alongside the writers and must never trip over a half removed order
+                database.getOrders(token, -1, 50);
+                database.getOrdersForClient(token, 7000 + thread);
+            }
+        });
+
+        Set<Integer> listed = new HashSet<>();
+        for (Order order : database.getOrders(token)) {
+            listed.add(order.getOrderID());
+        }
+
+        for (int thread = 0; thread < THREADS; thread++) {
+            Set<Integer> forClient = new HashSet<>();
+            for (Order order : database.getOrdersForClient(token, 7000 + thread)) {
+                forClient.add(order.getOrderID());
+            }
+
+            for (int i = 0; i < ROUNDS; i++) {
+                int id = ids[thread][i];
+                boolean kept = i % 2 != 0;
+                assertEquals(kept, null != database.getOrder(token, id));
+                assertEquals(kept, listed.contains(id));
+                assertEquals(kept, forClient.contains(id));
+                assertEquals(kept, null != findSummary(id));
+            }
+            assertEquals(ROUNDS / 2, forClient.size());
+        }
+    }
+
+    @Test
+    public void overlappingBatchesApplyWholeBatches() throws Exception {
+        int batchSize = Math.min(10, database.getMaxBatchSize());
+        int[] ids = new int[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            ids[i] = database.getNextOrderID();
+        }
+
+        // Every thread saves the same orders, each time with its own employee count on all of them
+        runAll(thread -> {
+            for (int round = 0; round < ROUNDS / 10; round++) {
+                List<Order> batch = new ArrayList<>();
+                for (int id : ids) {
+                    Order order = new NewOrderImpl(id, 8000, LocalDateTime.now());
+                    order.setReport(report, thread + 1);
+                    batch.add(order);
+                }
+                database.saveOrders(token, batch);
+            }
+        });
+
+        // Batches are applied whole, so every order has to come from the same batch
+        int expected = database.getOrder(token, ids[0]).getReportEmployeeCount(report);
+        for (int id : ids) {
+            assertEquals(expected, database.getOrder(token, id).getReportEmployeeCount(report));
+        }
+        assertEquals(batchSize, database.getOrdersForClient(token, 8000).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void batchOverTheLimitIsRejected() {
+        List<Order> batch = new ArrayList<>();
+        for (int i = 0; i <= database.getMaxBatchSize(); i++) {
+            batch.add(new NewOrderImpl(database.getNextOrderID(), 9000, LocalDateTime.now()));
+        }
+        database.saveOrders(token, batch);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativePageLimitIsRejected() {
+        database.getOrderSummaries(token, -1, -1);
+    }
+
+    private OrderSummary findSummary(int id) {
+        List<OrderSummary> page = database.getOrderSummaries(token, id - 1, 1);
+        return page.isEmpty() || page.get(0).getOrderID() != id ? null : page.get(0);
+    }
+
+    private void runAll(ThreadBody body) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> results = new ArrayList<>();
+
+        for (int thread = 0; thread < THREADS; thread++) {
+            int index = thread;
+            Callable<Void> task = () -> {
+                start.await();
+                body.run(index);
+                return null;
+            };
+            results.add(pool.submit(task));
+        }
+
+        start.countDown(); // release every thread at once to get as much overlap as possible
+        for (Future<Void> result : results) {
+            result.get(60, TimeUnit.SECONDS); // rethrows any assertion that failed on a worker
+        }
+    }
+
+    private interface ThreadBody {
+        void run(int thread) throws Exception;
+    }
+}
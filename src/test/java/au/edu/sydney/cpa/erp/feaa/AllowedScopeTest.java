@@ -2,6 +2,7 @@ package au.edu.sydney.cpa.erp.feaa;
 
 import au.edu.sydney.cpa.erp.auth.AuthModule;
 import au.edu.sydney.cpa.erp.auth.AuthToken;
+import au.edu.sydney.cpa.erp.database.OrderSummary;
 import au.edu.sydney.cpa.erp.database.TestDatabase;
 import au.edu.sydney.cpa.erp.ordering.Client;
 import au.edu.sydney.cpa.erp.ordering.Order;
@@ -25,6 +26,7 @@ import java.util.regex.Pattern;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.powermock.api.mockito.PowerMockito.*;
 
@@ -56,6 +58,9 @@ public class AllowedScopeTest {
         when(mockedProd300.getReportName()).thenReturn("Fake Report 2");
 
         facade = new FEAAFacade();
+
+        // The client cache is process wide, don't let one test see another test's clients
+        ClientCache.getInstance().invalidateAll();
     }
 
     private void setupLogin() {
@@ -66,6 +71,12 @@ public class AllowedScopeTest {
         facade.login("username", "password");
     }
 
+    // ArgumentCaptor.forClass can only take the raw Collection class, so the cast to the batch type is done once here
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<Collection<Order>> savedOrdersCaptor() {
+        return ArgumentCaptor.forClass((Class<Collection<Order>>) (Class<?>) Collection.class);
+    }
+
     @Test
     public void login() {
         when(AuthModule.login("username", "password")).thenReturn(mock(AuthToken.class));
@@ -95,18 +106,17 @@ public class AllowedScopeTest {
         doThrow(new AssertionError("Unexpected Logout Interaction")).when(AuthModule.class);
         AuthModule.logout(any());
 
-        Order mockedOrder1 = mock(Order.class);
-        when(mockedOrder1.getOrderID()).thenReturn(1001);
-        Order mockedOrder2 = mock(Order.class);
-        when(mockedOrder2.getOrderID()).thenReturn(2002);
-        when(mockedDB.getOrders(mockedToken)).thenReturn(Arrays.asList(mockedOrder1, mockedOrder2));
+        OrderSummary summary1 = new OrderSummary(1001, 1, LocalDateTime.now(), false, 0.0, false, 0.0);
+        OrderSummary summary2 = new OrderSummary(2002, 1, LocalDateTime.now(), false, 0.0, false, 0.0);
+        when(mockedDB.getOrderSummaries(eq(mockedToken), eq(-1), anyInt())).thenReturn(Arrays.asList(summary1, summary2));
 
         List<Integer> result = facade.getAllOrders();
         assertEquals(2, result.size());
         assertTrue(result.contains(1001));
         assertTrue(result.contains(2002));
 
-        verify(mockedDB).getOrders(mockedToken);
+        verify(mockedDB).getOrderSummaries(eq(mockedToken), eq(-1), anyInt());
+        verify(mockedDB, never()).getOrders(any(AuthToken.class), anyInt(), anyInt());
     }
 
     @Test
@@ -146,14 +156,15 @@ public class AllowedScopeTest {
         setupLogin();
         when(mockedDB.getClientIDs(mockedToken)).thenReturn(Arrays.asList(1, 2, 3));
 
-        ArgumentCaptor<Order> captor = ArgumentCaptor.forClass(Order.class);
-        doNothing().when(mockedDB).saveOrder(eq(mockedToken), captor.capture());
+        ArgumentCaptor<Collection<Order>> captor = savedOrdersCaptor();
+        doNothing().when(mockedDB).saveOrders(eq(mockedToken), captor.capture());
 
         int testOrderID = facade.createOrder(2, LocalDateTime.now(), true, false, 2, 10, -1, -1);
         facade.logout();
 
-        verify(mockedDB).saveOrder(eq(mockedToken), any());
-        Order order = captor.getValue();
+        verify(mockedDB).saveOrders(eq(mockedToken), any());
+        assertEquals(1, captor.getValue().size());
+        Order order = captor.getValue().iterator().next();
         assertEquals(testOrderID, order.getOrderID());
 
         order.setReport(mockedProd100, 30);
@@ -179,14 +190,15 @@ public class AllowedScopeTest {
         setupLogin();
         when(mockedDB.getClientIDs(mockedToken)).thenReturn(Arrays.asList(1, 2, 3));
 
-        ArgumentCaptor<Order> captor = ArgumentCaptor.forClass(Order.class);
-        doNothing().when(mockedDB).saveOrder(eq(mockedToken), captor.capture());
+        ArgumentCaptor<Collection<Order>> captor = savedOrdersCaptor();
+        doNothing().when(mockedDB).saveOrders(eq(mockedToken), captor.capture());
 
         int testOrderID = facade.createOrder(2, LocalDateTime.now(), true, true, 2, 10, -1, 10);
         facade.logout();
 
-        verify(mockedDB).saveOrder(eq(mockedToken), any());
-        Order order = captor.getValue();
+        verify(mockedDB).saveOrders(eq(mockedToken), any());
+        assertEquals(1, captor.getValue().size());
+        Order order = captor.getValue().iterator().next();
         assertEquals(testOrderID, order.getOrderID());
 
         order.setReport(mockedProd100, 30);
@@ -211,14 +223,15 @@ public class AllowedScopeTest {
         setupLogin();
         when(mockedDB.getClientIDs(mockedToken)).thenReturn(Arrays.asList(1, 2, 3));
 
-        ArgumentCaptor<Order> captor = ArgumentCaptor.forClass(Order.class);
-        doNothing().when(mockedDB).saveOrder(eq(mockedToken), captor.capture());
+        ArgumentCaptor<Collection<Order>> captor = savedOrdersCaptor();
+        doNothing().when(mockedDB).saveOrders(eq(mockedToken), captor.capture());
 
         int testOrderID = facade.createOrder(2, LocalDateTime.now(), true, false, 1, 10, 10, -1);
         facade.logout();
 
-        verify(mockedDB).saveOrder(eq(mockedToken), any());
-        Order order = captor.getValue();
+        verify(mockedDB).saveOrders(eq(mockedToken), any());
+        assertEquals(1, captor.getValue().size());
+        Order order = captor.getValue().iterator().next();
         assertEquals(testOrderID, order.getOrderID());
 
         order.setReport(mockedProd100, 10);
@@ -245,14 +258,15 @@ public class AllowedScopeTest {
         setupLogin();
         when(mockedDB.getClientIDs(mockedToken)).thenReturn(Arrays.asList(1, 2, 3));
 
-        ArgumentCaptor<Order> captor = ArgumentCaptor.forClass(Order.class);
-        doNothing().when(mockedDB).saveOrder(eq(mockedToken), captor.capture());
+        ArgumentCaptor<Collection<Order>> captor = savedOrdersCaptor();
+        doNothing().when(mockedDB).saveOrders(eq(mockedToken), captor.capture());
 
         int testOrderID = facade.createOrder(2, LocalDateTime.now(), true, true, 1, 10, 10, 10);
         facade.logout();
 
-        verify(mockedDB).saveOrder(eq(mockedToken), any());
-        Order order = captor.getValue();
+        verify(mockedDB).saveOrders(eq(mockedToken), any());
+        assertEquals(1, captor.getValue().size());
+        Order order = captor.getValue().iterator().next();
         assertEquals(testOrderID, order.getOrderID());
 
         order.setReport(mockedProd100, 10);
@@ -279,14 +293,15 @@ public class AllowedScopeTest {
         setupLogin();
         when(mockedDB.getClientIDs(mockedToken)).thenReturn(Arrays.asList(1, 2, 3));
 
-        ArgumentCaptor<Order> captor = ArgumentCaptor.forClass(Order.class);
-        doNothing().when(mockedDB).saveOrder(eq(mockedToken), captor.capture());
+        ArgumentCaptor<Collection<Order>> captor = savedOrdersCaptor();
+        doNothing().when(mockedDB).saveOrders(eq(mockedToken), captor.capture());
 
         int testOrderID = facade.createOrder(2, LocalDateTime.now(), false, false, 2, -1, -1, -1);
         facade.logout();
 
-        verify(mockedDB).saveOrder(eq(mockedToken), any());
-        Order order = captor.getValue();
+        verify(mockedDB).saveOrders(eq(mockedToken), any());
+        assertEquals(1, captor.getValue().size());
+        Order order = captor.getValue().iterator().next();
         assertEquals(testOrderID, order.getOrderID());
 
         order.setReport(mockedProd100, 10);
@@ -316,14 +331,15 @@ public class AllowedScopeTest {
         setupLogin();
         when(mockedDB.getClientIDs(mockedToken)).thenReturn(Arrays.asList(1, 2, 3));
 
-        ArgumentCaptor<Order> captor = ArgumentCaptor.forClass(Order.class);
-        doNothing().when(mockedDB).saveOrder(eq(mockedToken), captor.capture());
+        ArgumentCaptor<Collection<Order>> captor = savedOrdersCaptor();
+        doNothing().when(mockedDB).saveOrders(eq(mockedToken), captor.capture());
 
         int testOrderID = facade.createOrder(2, LocalDateTime.now(), false, true, 2, -1, -1, 10);
         facade.logout();
 
-        verify(mockedDB).saveOrder(eq(mockedToken), any());
-        Order order = captor.getValue();
+        verify(mockedDB).saveOrders(eq(mockedToken), any());
+        assertEquals(1, captor.getValue().size());
+        Order order = captor.getValue().iterator().next();
         assertEquals(testOrderID, order.getOrderID());
 
         order.setReport(mockedProd100, 10);
@@ -353,14 +369,15 @@ public class AllowedScopeTest {
         setupLogin();
         when(mockedDB.getClientIDs(mockedToken)).thenReturn(Arrays.asList(1, 2, 3));
 
-        ArgumentCaptor<Order> captor = ArgumentCaptor.forClass(Order.class);
-        doNothing().when(mockedDB).saveOrder(eq(mockedToken), captor.capture());
+        ArgumentCaptor<Collection<Order>> captor = savedOrdersCaptor();
+        doNothing().when(mockedDB).saveOrders(eq(mockedToken), captor.capture());
 
         int testOrderID = facade.createOrder(2, LocalDateTime.now(), false, false, 1, 10, 10, -1);
         facade.logout();
 
-        verify(mockedDB).saveOrder(eq(mockedToken), any());
-        Order order = captor.getValue();
+        verify(mockedDB).saveOrders(eq(mockedToken), any());
+        assertEquals(1, captor.getValue().size());
+        Order order = captor.getValue().iterator().next();
         assertEquals(testOrderID, order.getOrderID());
 
         order.setReport(mockedProd100, 10);
@@ -389,14 +406,15 @@ public class AllowedScopeTest {
         setupLogin();
         when(mockedDB.getClientIDs(mockedToken)).thenReturn(Arrays.asList(1, 2, 3));
 
-        ArgumentCaptor<Order> captor = ArgumentCaptor.forClass(Order.class);
-        doNothing().when(mockedDB).saveOrder(eq(mockedToken), captor.capture());
+        ArgumentCaptor<Collection<Order>> captor = savedOrdersCaptor();
+        doNothing().when(mockedDB).saveOrders(eq(mockedToken), captor.capture());
 
         int testOrderID = facade.createOrder(2, LocalDateTime.now(), false, true, 1, 10, 10, 10);
         facade.logout();
 
-        verify(mockedDB).saveOrder(eq(mockedToken), any());
-        Order order = captor.getValue();
+        verify(mockedDB).saveOrders(eq(mockedToken), any());
+        assertEquals(1, captor.getValue().size());
+        Order order = captor.getValue().iterator().next();
         assertEquals(testOrderID, order.getOrderID());
 
         order.setReport(mockedProd100, 10);
@@ -0,0 +1,73 @@
+package au.edu.sydney.cpa.erp.feaa;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the two ExecutionModes by running many simulated employee sessions at once through AsyncFEAAFacade.
+ *
+ * Each session logs in, looks up the client list, loads every client's profile and logs out again, which is
+ * 3 simulated database seconds of waiting. The database is sped up so one simulated second takes
+ * MILLIS_PER_SECOND, override with -Dfeaa.db.millisPerSecond=n.
+ *
+ * Not a unit test, so neither JUnit nor gradle test runs it. Run it with gradle benchmark, which runs the main
+ * method on the test classpath and passes on any -Dfeaa.* properties given to Gradle. Run it on Java 21+ to get
+ * real virtual threads, older JVMs fall back to a cached pool (see ExecutionMode).
+ */
+public class ExecutionModeBenchmark {
+    private static final int[] SESSION_COUNTS = {10, 100, 1000};
+    private static final int PLATFORM_THREADS = 8;
+    private static final String MILLIS_PER_SECOND = "10";
+
+    public static void main(String[] args) {
+        if (null == System.getProperty("feaa.db.millisPerSecond")) {
+            System.setProperty("feaa.db.millisPerSecond", MILLIS_PER_SECOND); // before TestDatabase is loaded
+        }
+
+        PrintStream out = System.out;
+        out.println("Virtual threads available: " + ExecutionMode.virtualThreadsAvailable());
+        out.println("Platform pool size: " + PLATFORM_THREADS);
+        out.printf("%-10s %10s %12s %16s%n", "mode", "sessions", "elapsed ms", "sessions/second");
+
+        run(ExecutionMode.PLATFORM, SESSION_COUNTS[0], out); // warm up, not reported
+
+        for (int sessions : SESSION_COUNTS) {
+            for (ExecutionMode mode : ExecutionMode.values()) {
+                long nanos = run(mode, sessions, out);
+                out.printf("%-10s %10d %12d %16.1f%n", mode, sessions, TimeUnit.NANOSECONDS.toMillis(nanos),
+                        sessions / (nanos / 1e9));
+            }
+        }
+    }
+
+    private static long run(ExecutionMode mode, int sessions, PrintStream out) {
+        ExecutorService executor = mode.newExecutor("benchmark", PLATFORM_THREADS);
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // the database's progress dots
+        try {
+            long start = System.nanoTime();
+
+            List<CompletableFuture<Void>> running = new ArrayList<>(sessions);
+            for (int i = 0; i < sessions; i++) {
+                running.add(session(new AsyncFEAAFacade(new FEAAFacade(), executor)));
+            }
+            CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[0])).join();
+
+            return System.nanoTime() - start;
+        } finally {
+            System.setOut(out);
+            executor.shutdown();
+        }
+    }
+
+    private static CompletableFuture<Void> session(AsyncFEAAFacade facade) {
+        return facade.login("Terry Gilliam", "hunter2")
+                .thenCompose(loggedIn -> facade.getAllClientIDs())
+                .thenCompose(facade::getClients)
+                .thenCompose(clients -> facade.logout());
+    }
+}
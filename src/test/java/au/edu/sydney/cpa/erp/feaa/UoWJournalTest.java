@@ -0,0 +1,181 @@
+package au.edu.sydney.cpa.erp.feaa;
+
+import au.edu.sydney.cpa.erp.auth.AuthModule;
+import au.edu.sydney.cpa.erp.auth.AuthToken;
+import au.edu.sydney.cpa.erp.database.TestDatabase;
+import au.edu.sydney.cpa.erp.feaa.ordering.NewOrderImpl;
+import au.edu.sydney.cpa.erp.feaa.reports.ReportFingerprint;
+import au.edu.sydney.cpa.erp.feaa.reports.ReportImpl;
+import au.edu.sydney.cpa.erp.ordering.Order;
+import au.edu.sydney.cpa.erp.ordering.Report;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongFunction;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes orders to a journal on disk, damages the file the way a crash would and checks what replay and
+ * compaction leave behind.
+ */
+public class UoWJournalTest {
+
+    private Path directory;
+    private Path file;
+    private UoWJournal journal;
+    private Report report;
+    private LongFunction<Report> reports;
+
+    @Before
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("uow-journal");
+        file = directory.resolve("orders.journal");
+        journal = new UoWJournal(file);
+        report = new ReportImpl("Journal Report", 10.0,
+                new double[]{1}, new double[]{2}, new double[]{3}, new double[]{4}, new double[]{5});
+        reports = fingerprint -> fingerprint == ReportFingerprint.of(report) ? report : null;
+        setMillisPerSecond(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        journal.close();
+        setMillisPerSecond(1000);
+        Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".tmp"));
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    public void ordersAndRemovalsReplayInOrder() {
+        journal.append(UoWJournal.CLEAN, order(1, 5));
+        journal.append(UoWJournal.DIRTY, order(1, 6));
+        journal.appendRemoval(1);
+
+        List<UoWJournal.Entry> entries = journal.replay(reports);
+
+        assertEquals(3, entries.size());
+        assertEquals(UoWJournal.CLEAN, entries.get(0).getKind());
+        assertEquals(5, entries.get(0).getOrder().getReportEmployeeCount(report));
+        assertEquals(UoWJournal.DIRTY, entries.get(1).getKind());
+        assertEquals(6, entries.get(1).getOrder().getReportEmployeeCount(report));
+        assertEquals(UoWJournal.REMOVED, entries.get(2).getKind());
+        assertEquals(1, entries.get(2).getOrderID());
+        assertNull(entries.get(2).getOrder());
+    }
+
+    @Test
+    public void tornTailIsCutOff() throws IOException {
+        journal.append(UoWJournal.CLEAN, order(1, 5));
+        long intact = journal.size();
+        journal.append(UoWJournal.CLEAN, order(2, 7));
+        journal.close();
+
+        // The crash happened half way through writing the second record
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+
+        journal = new UoWJournal(file);
+        List<UoWJournal.Entry> entries = journal.replay(reports);
+
+        assertEquals(1, entries.size());
+        assertEquals(1, entries.get(0).getOrderID());
+        assertEquals(intact, journal.size());
+    }
+
+    @Test
+    public void corruptRecordEndsTheJournal() throws IOException {
+        journal.append(UoWJournal.CLEAN, order(1, 5));
+        long intact = journal.size();
+        journal.append(UoWJournal.CLEAN, order(2, 7));
+        journal.append(UoWJournal.CLEAN, order(3, 9));
+        journal.close();
+
+        // Flip a byte inside the second record's payload, so its CRC no longer matches
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[(int) intact + 2 * Integer.BYTES + 3] ^= 0x55;
+        Files.write(file, bytes);
+
+        journal = new UoWJournal(file);
+        List<UoWJournal.Entry> entries = journal.replay(reports);
+
+        assertEquals(1, entries.size());
+        assertEquals(1, entries.get(0).getOrderID());
+        assertEquals(intact, journal.size());
+
+        // New records go straight after the last good one
+        journal.append(UoWJournal.DIRTY, order(4, 1));
+        assertEquals(2, journal.replay(reports).size());
+    }
+
+    @Test
+    public void fileCanOnlyBeOpenedOnceAtATime() throws IOException {
+        try {
+            new UoWJournal(file).close();
+            fail("Second journal opened on the same file");
+        } catch (IOException expected) {
+            // still open by the journal from setup
+        }
+
+        journal.close();
+        journal = new UoWJournal(file);
+        assertEquals(0, journal.replay(reports).size());
+    }
+
+    @Test
+    public void commitKeepsOnlyFailedSavesInTheJournal() {
+        AuthToken token = AuthModule.login("Terry Gilliam", "hunter2");
+        AuthToken expired = AuthModule.login("Terry Gilliam", "hunter2");
+        AuthModule.logout(expired);
+
+        UoW uoW = new UoW();
+        uoW.setJournal(journal);
+        TestDatabase database = TestDatabase.getInstance();
+
+        try {
+            Order saved = order(database.getNextOrderID(), 5);
+            uoW.RegisterClean(saved);
+            CommitReport first = uoW.commit(token);
+
+            assertTrue(first.isSuccessful());
+            assertTrue(first.getJournalFailures().isEmpty());
+            assertTrue(journal.replay(reports).isEmpty());
+
+            Order failed = order(database.getNextOrderID(), 6);
+            uoW.RegisterClean(failed);
+            CommitReport second = uoW.commit(expired);
+
+            assertEquals(1, second.getFailures().size());
+            assertTrue(second.getFailures().containsKey(failed.getOrderID()));
+
+            List<UoWJournal.Entry> kept = journal.replay(reports);
+            assertEquals(1, kept.size());
+            assertEquals(failed.getOrderID(), kept.get(0).getOrderID());
+            assertEquals(6, kept.get(0).getOrder().getReportEmployeeCount(report));
+        } finally {
+            AuthModule.logout(token);
+        }
+    }
+
+    private Order order(int id, int employees) {
+        Order order = new NewOrderImpl(id, 1, LocalDateTime.now());
+        order.setReport(report, employees);
+        return order;
+    }
+
+    // setMillisPerSecond is only meant for the database's own tests, so it is reached reflectively from here
+    private static void setMillisPerSecond(long millis) throws Exception {
+        Method setter = TestDatabase.class.getDeclaredMethod("setMillisPerSecond", long.class);
+        setter.setAccessible(true);
+        setter.invoke(TestDatabase.getInstance(), millis);
+    }
+}
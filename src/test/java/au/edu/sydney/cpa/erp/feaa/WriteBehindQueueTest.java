@@ -0,0 +1,223 @@
+package au.edu.sydney.cpa.erp.feaa;
+
+import au.edu.sydney.cpa.erp.auth.AuthModule;
+import au.edu.sydney.cpa.erp.auth.AuthToken;
+import au.edu.sydney.cpa.erp.database.TestDatabase;
+import au.edu.sydney.cpa.erp.feaa.ordering.NewOrderImpl;
+import au.edu.sydney.cpa.erp.feaa.reports.ReportImpl;
+import au.edu.sydney.cpa.erp.ordering.Order;
+import au.edu.sydney.cpa.erp.ordering.Report;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.time.LocalDateTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the write-behind queue against the test database. Most tests hold the queue's only worker behind a gate
+ * so orders can be lined up before anything is saved.
+ */
+public class WriteBehindQueueTest {
+
+    private TestDatabase database;
+    private AuthToken token;
+    private Report report;
+    private ExecutorService pool;
+    private CountDownLatch gate;
+
+    @Before
+    public void setup() throws Exception {
+        database = TestDatabase.getInstance();
+        setMillisPerSecond(0);
+        token = AuthModule.login("Terry Gilliam", "hunter2");
+        report = new ReportImpl("Write Behind Report", 10.0,
+                new double[]{1}, new double[]{2}, new double[]{3}, new double[]{4}, new double[]{5});
+
+        // The pool's only thread waits at the gate first, so every save queued before release() waits behind it
+        pool = Executors.newSingleThreadExecutor();
+        gate = new CountDownLatch(1);
+        pool.execute(() -> {
+            try {
+                gate.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        gate.countDown();
+        pool.shutdownNow();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+        setMillisPerSecond(1000);
+        AuthModule.logout(token);
+    }
+
+    @Test
+    public void requeuedOrderReplacesItsWaitingSnapshot() {
+        WriteBehindQueue queue = new WriteBehindQueue(pool, 1);
+        Order order = order(database.getNextOrderID(), 5);
+
+        queue.enqueue(token, order);
+        order.setReport(report, 6);
+        queue.enqueue(token, order);
+        assertEquals(1, queue.getQueueDepth());
+
+        gate.countDown();
+        queue.flush();
+
+        assertEquals(6, database.getOrder(token, order.getOrderID()).getReportEmployeeCount(report));
+        assertEquals(1, queue.getSaveLatency().getCount());
+    }
+
+    @Test
+    public void requeuedOrderMovesToTheBack() throws Exception {
+        AuthToken other = AuthModule.login("Terry Gilliam", "hunter2");
+        try {
+            WriteBehindQueue queue = new WriteBehindQueue(pool, 1);
+            Order first = order(database.getNextOrderID(), 1);
+            Order second = order(database.getNextOrderID(), 2);
+
+            // Different tokens keep the two orders in separate batches
+            queue.enqueue(token, first);
+            queue.enqueue(other, second);
+            queue.enqueue(token, first);
+
+            setMillisPerSecond(20); // each save now waits 200ms before it writes
+            gate.countDown();
+            while (null == database.getOrder(token, second.getOrderID())) {
+                Thread.sleep(1);
+            }
+            assertNull("Re-queued order was saved first", database.getOrder(token, first.getOrderID()));
+
+            queue.flush();
+            assertNotNull(database.getOrder(token, first.getOrderID()));
+        } finally {
+            AuthModule.logout(other);
+        }
+    }
+
+    @Test
+    public void cancelDropsASaveThatHasNotStarted() {
+        WriteBehindQueue queue = new WriteBehindQueue(pool, 1);
+        Order order = order(database.getNextOrderID(), 5);
+
+        queue.enqueue(token, order);
+        queue.cancel(order.getOrderID());
+
+        gate.countDown();
+        queue.flush();
+
+        assertNull(database.getOrder(token, order.getOrderID()));
+        assertEquals(0, queue.getSaveLatency().getCount());
+    }
+
+    @Test
+    public void cancelWaitsForASaveInFlight() throws Exception {
+        WriteBehindQueue queue = new WriteBehindQueue(pool, 1);
+        Order order = order(database.getNextOrderID(), 5);
+
+        setMillisPerSecond(20);
+        queue.enqueue(token, order);
+        gate.countDown();
+        while (0 == queue.getActiveWrites()) {
+            Thread.sleep(1);
+        }
+
+        queue.cancel(order.getOrderID());
+
+        assertEquals(0, queue.getActiveWrites());
+        assertNotNull("cancel returned before the save landed", database.getOrder(token, order.getOrderID()));
+    }
+
+    @Test
+    public void flushWaitsOutAnInterrupt() throws Exception {
+        WriteBehindQueue queue = new WriteBehindQueue(pool, 1);
+        Order order = order(database.getNextOrderID(), 5);
+        queue.enqueue(token, order);
+
+        Thread opener = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            gate.countDown();
+        });
+        opener.start();
+
+        Thread.currentThread().interrupt();
+        queue.flush();
+
+        assertTrue("Interrupt was swallowed", Thread.interrupted());
+        assertNotNull(database.getOrder(token, order.getOrderID()));
+        opener.join();
+    }
+
+    @Test
+    public void outcomeTracksFailuresUntilALaterSaveSucceeds() {
+        AuthToken expired = AuthModule.login("Terry Gilliam", "hunter2");
+        AuthModule.logout(expired);
+
+        WriteBehindQueue queue = new WriteBehindQueue(pool, 1);
+        Order order = order(database.getNextOrderID(), 5);
+        gate.countDown();
+
+        queue.enqueue(expired, order);
+        queue.flush();
+        CommitReport failed = queue.takeOutcome(0, 0);
+
+        assertTrue(failed.getFailures().get(order.getOrderID()) instanceof SecurityException);
+        assertTrue(failed.getSavedOrderIDs().isEmpty());
+        assertEquals(1, queue.getFailedWrites());
+
+        queue.enqueue(token, order);
+        queue.flush();
+        CommitReport saved = queue.takeOutcome(0, 0);
+
+        assertTrue(saved.isSuccessful());
+        assertTrue(saved.getSavedOrderIDs().contains(order.getOrderID()));
+
+        CommitReport empty = queue.takeOutcome(0, 0);
+        assertTrue(empty.getSavedOrderIDs().isEmpty());
+        assertTrue(empty.getFailures().isEmpty());
+    }
+
+    @Test
+    public void rejectedWorkerFailsTheWaitingSaves() {
+        gate.countDown();
+        pool.shutdown();
+
+        WriteBehindQueue queue = new WriteBehindQueue(pool, 2);
+        Order order = order(database.getNextOrderID(), 5);
+
+        for (int i = 0; i < 2; i++) {
+            queue.enqueue(token, order);
+            queue.flush();
+
+            CommitReport report = queue.takeOutcome(0, 0);
+            assertTrue(report.getFailures().get(order.getOrderID()) instanceof RejectedExecutionException);
+            assertEquals(0, queue.getQueueDepth());
+        }
+    }
+
+    private Order order(int id, int employees) {
+        Order order = new NewOrderImpl(id, 1, LocalDateTime.now());
+        order.setReport(report, employees);
+        return order;
+    }
+
+    // setMillisPerSecond is only meant for the database's own tests, so it is reached reflectively from here
+    private static void setMillisPerSecond(long millis) throws Exception {
+        Method setter = TestDatabase.class.getDeclaredMethod("setMillisPerSecond", long.class);
+        setter.setAccessible(true);
+        setter.invoke(TestDatabase.getInstance(), millis);
+    }
+}
@@ -0,0 +1,124 @@
+package au.edu.sydney.cpa.erp.feaa.ordering;
+
+import au.edu.sydney.cpa.erp.feaa.reports.ReportFingerprint;
+import au.edu.sydney.cpa.erp.feaa.reports.ReportImpl;
+import au.edu.sydney.cpa.erp.ordering.Order;
+import au.edu.sydney.cpa.erp.ordering.Report;
+import au.edu.sydney.cpa.erp.ordering.ScheduledOrder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes every kind of FEAA order out with OrderCodec and checks it reads back the same.
+ */
+public class OrderCodecTest {
+    private static final LocalDateTime DATE = LocalDateTime.of(2020, 5, 17, 9, 30, 15, 123_000_000);
+
+    private Report payroll;
+    private Report audit;
+    private Map<Long, Report> reports;
+
+    @Before
+    public void setup() {
+        payroll = new ReportImpl("Payroll Tax Report ", 12.5,
+                new double[]{1, 2}, new double[]{3}, new double[]{4}, new double[]{5}, new double[]{6});
+        audit = new ReportImpl("Dark Costs Report ", 40.0,
+                new double[]{7}, new double[]{8}, new double[]{9, 10}, new double[]{11}, new double[]{12});
+
+        reports = new HashMap<>();
+        for (Report report : Arrays.asList(payroll, audit)) {
+            reports.put(ReportFingerprint.of(report), report);
+        }
+    }
+
+    @Test
+    public void everyOrderTypeRoundTrips() throws IOException {
+        List<Order> orders = Arrays.asList(
+                new NewOrderImpl(1, 101, DATE),
+                new NewOrderImplScheduled(2, 102, DATE, 4),
+                new Order66(3, 103, DATE, 15),
+                new Order66Scheduled(4, 104, DATE, 15, 3),
+                new FirstOrderType(5, 105, DATE, 0.25, 15),
+                new FirstOrderTypeScheduled(6, 106, DATE, 0.25, 15, 2),
+                new CriticalAuditOrder(7, 107, DATE, 0.5),
+                new CriticalAuditOrderScheduled(8, 108, DATE, 0.5, 6));
+
+        for (Order order : orders) {
+            order.setReport(payroll, 10);
+            order.setReport(audit, 20);
+            if (order.getOrderID() % 2 == 0) {
+                order.finalise();
+            }
+
+            assertTrue(OrderCodec.canEncode(order));
+            assertSameOrder(order, roundTrip(order));
+        }
+    }
+
+    @Test
+    public void orderWithNoReportsOrDateRoundTrips() throws IOException {
+        Order order = new FirstOrderType(9, 109, null, 0.1, 5);
+        Order decoded = roundTrip(order);
+
+        // longDesc needs a date, so only the fields themselves are compared
+        assertEquals(FirstOrderType.class, decoded.getClass());
+        assertEquals(9, decoded.getOrderID());
+        assertNull(decoded.getOrderDate());
+        assertTrue(decoded.getAllReports().isEmpty());
+        assertEquals(0.0, decoded.getTotalCommission(), 0);
+    }
+
+    @Test
+    public void reportsThatNoLongerExistAreLeftOff() throws IOException {
+        Order order = new NewOrderImpl(10, 110, DATE);
+        order.setReport(payroll, 10);
+        order.setReport(audit, 20);
+
+        reports.remove(ReportFingerprint.of(audit));
+        Order decoded = roundTrip(order);
+
+        assertEquals(1, decoded.getAllReports().size());
+        assertEquals(10, decoded.getReportEmployeeCount(payroll));
+        assertEquals(0, decoded.getReportEmployeeCount(audit));
+    }
+
+    private Order roundTrip(Order order) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OrderCodec.encode(order, new DataOutputStream(bytes));
+        return OrderCodec.decode(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), reports::get);
+    }
+
+    private static void assertSameOrder(Order expected, Order actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getOrderID(), actual.getOrderID());
+        assertEquals(expected.getClient(), actual.getClient());
+        assertEquals(expected.getOrderDate(), actual.getOrderDate());
+        assertEquals(expected.getTotalCommission(), actual.getTotalCommission(), 0.0001);
+        assertEquals(expected.longDesc(), actual.longDesc());
+        assertEquals(((ChangeTracked) expected).isFinalised(), ((ChangeTracked) actual).isFinalised());
+        assertEquals(((ChangeTracked) expected).getVersion(), ((ChangeTracked) actual).getVersion());
+
+        assertEquals(expected.getAllReports().size(), actual.getAllReports().size());
+        for (Report report : expected.getAllReports()) {
+            assertEquals(expected.getReportEmployeeCount(report), actual.getReportEmployeeCount(report));
+        }
+
+        if (expected instanceof ScheduledOrder) {
+            assertEquals(((ScheduledOrder) expected).getNumberOfQuarters(), ((ScheduledOrder) actual).getNumberOfQuarters());
+            assertEquals(((ScheduledOrder) expected).getRecurringCost(), ((ScheduledOrder) actual).getRecurringCost(), 0.0001);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package au.edu.sydney.cpa.erp.feaa.ordering;
+
+import au.edu.sydney.cpa.erp.feaa.reports.ReportImpl;
+import au.edu.sydney.cpa.erp.ordering.Order;
+import au.edu.sydney.cpa.erp.ordering.Report;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import static org.junit.Assert.*;
+
+/**
+ * Copies every kind of FEAA order the way the database and the UoW do, and checks the copy keeps its state,
+ * its running subtotal and its content-keyed reports, and changes independently of the original.
+ *
+ * Order66 copies as a NewOrderImpl, as it always has, so employee counts here stay under its cap of 100.
+ */
+public class OrderCopyTest {
+    private static final LocalDateTime DATE = LocalDateTime.of(2020, 5, 17, 9, 30);
+
+    private static final List<IntFunction<Order>> ORDER_TYPES = Arrays.asList(
+            id -> new NewOrderImpl(id, 101, DATE),
+            id -> new NewOrderImplScheduled(id, 102, DATE, 4),
+            id -> new Order66(id, 103, DATE, 100),
+            id -> new Order66Scheduled(id, 104, DATE, 100, 3),
+            id -> new FirstOrderType(id, 105, DATE, 0.25, 100),
+            id -> new FirstOrderTypeScheduled(id, 106, DATE, 0.25, 100, 2),
+            id -> new CriticalAuditOrder(id, 107, DATE, 0.5),
+            id -> new CriticalAuditOrderScheduled(id, 108, DATE, 0.5, 6));
+
+    private Report payroll;
+    private Report audit;
+
+    @Before
+    public void setup() {
+        payroll = report("Payroll Tax Report ", 12.5);
+        audit = report("Dark Costs Report ", 40.0);
+    }
+
+    @Test
+    public void copyKeepsFinalisedFlagVersionAndSubtotal() {
+        for (IntFunction<Order> type : ORDER_TYPES) {
+            for (boolean finalised : new boolean[]{false, true}) {
+                Order order = withLines(type.apply(1), 10, 20);
+                if (finalised) {
+                    order.finalise();
+                }
+
+                Order copy = order.copy();
+                String name = order.getClass().getSimpleName() + (finalised ? " finalised" : "");
+
+                assertNotSame(order, copy);
+                assertEquals(name, finalised, ((ChangeTracked) copy).isFinalised());
+                assertEquals(name, ((ChangeTracked) order).getVersion(), ((ChangeTracked) copy).getVersion());
+                assertEquals(name, order.getTotalCommission(), copy.getTotalCommission(), 0.0001);
+                assertEquals(name, 10, copy.getReportEmployeeCount(payroll));
+                assertEquals(name, 20, copy.getReportEmployeeCount(audit));
+            }
+        }
+    }
+
+    @Test
+    public void finalisedCopyCannotBeEdited() {
+        for (IntFunction<Order> type : ORDER_TYPES) {
+            Order order = withLines(type.apply(2), 10, 20);
+            order.finalise();
+            Order copy = order.copy();
+
+            try {
+                copy.setReport(audit, 30);
+                fail(order.getClass().getSimpleName() + " copy of a finalised order accepted a change");
+            } catch (IllegalStateException expected) {
+                // same as the original
+            }
+        }
+    }
+
+    @Test
+    public void copyAndOriginalChangeIndependently() {
+        for (IntFunction<Order> type : ORDER_TYPES) {
+            Order order = withLines(type.apply(3), 10, 20);
+            double before = order.getTotalCommission();
+            Order copy = order.copy();
+
+            copy.setReport(audit, 30);
+            copy.setReport(payroll, 5);
+
+            String name = order.getClass().getSimpleName();
+            // The running subtotal has to come out the same as adding the lines to a new order
+            assertEquals(name, withLines(type.apply(3), 5, 30).getTotalCommission(), copy.getTotalCommission(), 0.0001);
+            assertEquals(name, before, order.getTotalCommission(), 0.0001);
+            assertEquals(name, 20, order.getReportEmployeeCount(audit));
+            assertTrue(name, ((ChangeTracked) copy).getVersion() > ((ChangeTracked) order).getVersion());
+        }
+    }
+
+    @Test
+    public void reportsAreMatchedByContent() {
+        for (IntFunction<Order> type : ORDER_TYPES) {
+            Order order = withLines(type.apply(4), 10, 20);
+
+            // Rebuilt over the network: equal content, different object
+            Report samePayroll = report("Payroll Tax Report ", 12.5);
+            order.setReport(samePayroll, 15);
+
+            String name = order.getClass().getSimpleName();
+            assertEquals(name, 2, order.getAllReports().size());
+            assertEquals(name, 15, order.getReportEmployeeCount(payroll));
+            assertEquals(name, 15, order.copy().getReportEmployeeCount(samePayroll));
+            assertEquals(name, withLines(type.apply(4), 15, 20).getTotalCommission(), order.getTotalCommission(), 0.0001);
+        }
+    }
+
+    private Order withLines(Order order, int payrollEmployees, int auditEmployees) {
+        order.setReport(payroll, payrollEmployees);
+        order.setReport(audit, auditEmployees);
+        return order;
+    }
+
+    private static Report report(String name, double commission) {
+        return new ReportImpl(name, commission,
+                new double[]{1, 2}, new double[]{3}, new double[]{4}, new double[]{5}, new double[]{6});
+    }
+}
@@ -0,0 +1,123 @@
+package au.edu.sydney.cpa.erp.feaa.reports;
+
+import au.edu.sydney.cpa.erp.ordering.Report;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Spills a few small reports to a file, maps them back and checks they read and compare like the originals.
+ */
+public class MappedReportStoreTest {
+
+    private Path directory;
+    private Path file;
+    private ReportImpl first;
+    private ReportImpl second;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("mapped-reports");
+        file = directory.resolve("reports.bin");
+        first = new ReportImpl("Audit", 12.5,
+                new double[]{1, 2, 3}, new double[]{4, 5}, new double[]{6}, new double[]{7, 8}, new double[]{9});
+        second = new ReportImpl("Payroll", 3.0,
+                new double[]{10, 11}, new double[0], new double[]{12, 13, 14}, new double[0], new double[]{15});
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path path : new Path[]{file, file.resolveSibling(file.getFileName() + ".tmp")}) {
+            Files.deleteIfExists(path);
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    public void spilledReportsReadBackTheSame() throws IOException {
+        List<Report> mapped = new MappedReportStore(file).write(Arrays.asList(first, second));
+
+        assertEquals(2, mapped.size());
+        assertSameContent(first, mapped.get(0));
+        assertSameContent(second, mapped.get(1));
+    }
+
+    @Test
+    public void seriesAreStoredColumnWise() throws IOException {
+        new MappedReportStore(file).write(Arrays.asList(first, second));
+
+        // The data ends with the deductions of both reports, one after the other
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer tail = ByteBuffer.wrap(bytes, bytes.length - 2 * Double.BYTES, 2 * Double.BYTES);
+        assertEquals(9, tail.getDouble(), 0);
+        assertEquals(15, tail.getDouble(), 0);
+    }
+
+    @Test
+    public void existingFileIsMappedWithoutAskingForReports() throws IOException {
+        new MappedReportStore(file).write(Arrays.asList(first, second));
+
+        List<Report> loaded = new MappedReportStore(file).getReports(() -> {
+            throw new AssertionError("Reports were regenerated instead of mapped");
+        });
+
+        assertEquals(2, loaded.size());
+        assertSameContent(first, loaded.get(0));
+        assertSameContent(second, loaded.get(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void fileThatIsNotAReportFileIsRejected() throws IOException {
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20});
+        new MappedReportStore(file).load();
+    }
+
+    @Test
+    public void mappedReportEqualsReportImplWithTheSameContent() throws IOException {
+        List<Report> mapped = new MappedReportStore(file).write(Arrays.asList(first, second));
+        Report mappedFirst = mapped.get(0);
+
+        assertTrue(mappedFirst.equals(first));
+        assertTrue(first.equals(mappedFirst));
+        assertEquals(first.hashCode(), mappedFirst.hashCode());
+        assertEquals(ReportFingerprint.of(first), ReportFingerprint.of(mappedFirst));
+        assertTrue(ReportImpl.sameContent(mappedFirst, first));
+
+        assertFalse(mappedFirst.equals(second));
+        assertFalse(second.equals(mappedFirst));
+        assertTrue(mapped.get(1).equals(second));
+
+        ReportImpl changed = new ReportImpl("Audit", 12.5,
+                new double[]{1, 2, 3}, new double[]{4, 5}, new double[]{6}, new double[]{7, 8}, new double[]{99});
+        assertFalse(mappedFirst.equals(changed));
+        assertFalse(changed.equals(mappedFirst));
+    }
+
+    @Test
+    public void reloadedReportsEqualEachOther() throws IOException {
+        List<Report> written = new MappedReportStore(file).write(Arrays.asList(first, second));
+        List<Report> loaded = new MappedReportStore(file).load();
+
+        assertEquals(written, loaded);
+        assertEquals(written.get(0).hashCode(), loaded.get(0).hashCode());
+    }
+
+    private static void assertSameContent(Report expected, Report actual) {
+        assertEquals(expected.getReportName(), actual.getReportName());
+        assertEquals(expected.getCommission(), actual.getCommission(), 0);
+        assertArrayEquals(expected.getLegalData(), actual.getLegalData(), 0);
+        assertArrayEquals(expected.getCashFlowData(), actual.getCashFlowData(), 0);
+        assertArrayEquals(expected.getMergesData(), actual.getMergesData(), 0);
+        assertArrayEquals(expected.getTallyingData(), actual.getTallyingData(), 0);
+        assertArrayEquals(expected.getDeductionsData(), actual.getDeductionsData(), 0);
+    }
+}